@@ -0,0 +1,32 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the scheduler benchmarks once per thread count and writes one JSON result file per run,
+ * so results can be compared between commits.
+ *
+ * Usage: BenchmarkRunner [benchmark regex] [comma separated thread counts]
+ * e.g.   BenchmarkRunner reserveAndCancel 1,4,16
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : SchedulerBenchmark.class.getSimpleName();
+        String threadCounts = args.length > 1 ? args[1] : "1,4,16";
+
+        for (String threads : threadCounts.split(",")) {
+            int t = Integer.parseInt(threads.trim());
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(include)
+                    .threads(t)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("jmh-result-" + t + "-threads.json");
+            new Runner(options.build()).run();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import scheduler.db.InMemoryRepository;
+import scheduler.db.Repositories;
+import scheduler.db.SchedulerRepository;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Reservation;
+import scheduler.model.Vaccine;
+import scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput and latency of the commands users run most, against the in-memory engine.
+ *
+ * Each benchmark goes through the same model and repository calls as the matching
+ * Scheduler command, minus the console output.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchedulerBenchmark {
+
+    static final String PASSWORD = "benchmark";
+    static final String VACCINE = "bench-vaccine";
+    static final LocalDate FIRST_DATE = LocalDate.of(2030, 1, 1);
+
+    @State(Scope.Benchmark)
+    public static class Data {
+        @Param({"10", "1000"})
+        public int caregivers;
+
+        @Param({"7", "90"})
+        public int dates;
+
+        @Param({"0", "10000"})
+        public int appointments;
+
+        // patients logging in and reserving; existing appointments are spread over them
+        @Param({"1000"})
+        public int patients;
+
+        SchedulerRepository repository;
+        Date[] dateValues;
+        int[] patientIds;
+        int[] caregiverIds;
+
+        @Setup(Level.Trial)
+        public void setUp() throws SQLException {
+            repository = new InMemoryRepository();
+            Repositories.use(repository);
+
+            dateValues = new Date[dates];
+            for (int i = 0; i < dates; i++) {
+                dateValues[i] = Date.valueOf(FIRST_DATE.plusDays(i));
+            }
+
+            caregiverIds = new int[caregivers];
+            for (int i = 0; i < caregivers; i++) {
+                byte[] salt = Util.generateSalt();
+                Caregiver caregiver = new Caregiver.CaregiverBuilder("caregiver" + i, salt, Util.generateHash(PASSWORD, salt)).build();
+                caregiver.saveToDB();
+                caregiverIds[i] = caregiver.getCaregiverIdFromCredentials();
+                for (Date date : dateValues) {
+                    caregiver.uploadAvailability(date);
+                }
+            }
+
+            new Vaccine.VaccineBuilder(VACCINE, Integer.MAX_VALUE / 2).build().saveToDB();
+
+            patientIds = new int[patients];
+            for (int i = 0; i < patients; i++) {
+                byte[] salt = Util.generateSalt();
+                Patient patient = new Patient.PatientBuilder("patient" + i, salt, Util.generateHash(PASSWORD, salt)).build();
+                patient.saveToDB();
+                patientIds[i] = patient.getPatientIdFromCredentials();
+            }
+
+            // book the requested history, stopping early if the slots run out
+            for (int i = 0; i < appointments; i++) {
+                Date date = dateValues[i % dates];
+                Reservation reservation = repository.reserve(patientIds[i % patients], date, VACCINE);
+                if (reservation.getStatus() != Reservation.Status.RESERVED) {
+                    break;
+                }
+            }
+        }
+
+        Date randomDate() {
+            return dateValues[ThreadLocalRandom.current().nextInt(dates)];
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        private static final AtomicInteger NEXT = new AtomicInteger();
+
+        int patientIndex;
+        int caregiverIndex;
+
+        @Setup(Level.Trial)
+        public void setUp(Data data) {
+            int n = NEXT.getAndIncrement();
+            patientIndex = n % data.patients;
+            caregiverIndex = n % data.caregivers;
+        }
+    }
+
+    @Benchmark
+    public Patient loginPatient(Data data, Client client) throws SQLException {
+        return new Patient.PatientGetter("patient" + client.patientIndex, PASSWORD).get();
+    }
+
+    @Benchmark
+    public Caregiver loginCaregiver(Data data, Client client) throws SQLException {
+        return new Caregiver.CaregiverGetter("caregiver" + client.caregiverIndex, PASSWORD).get();
+    }
+
+    @Benchmark
+    public void searchCaregiverSchedule(Data data, Blackhole bh) throws SQLException {
+        bh.consume(data.repository.getAvailableCaregivers(data.randomDate()));
+        bh.consume(data.repository.getVaccines());
+    }
+
+    // reserve followed by cancel keeps the number of free slots steady across iterations
+    @Benchmark
+    public boolean reserveAndCancel(Data data, Client client) throws SQLException {
+        int patientId = data.patientIds[client.patientIndex];
+        Reservation reservation = data.repository.reserve(patientId, data.randomDate(), VACCINE);
+        if (reservation.getStatus() != Reservation.Status.RESERVED) {
+            return false;
+        }
+        return data.repository.cancelPatientAppointment(reservation.getAppointmentId(), patientId);
+    }
+
+    @Benchmark
+    public void showAppointmentsPatient(Data data, Client client, Blackhole bh) throws SQLException {
+        bh.consume(data.repository.getPatientAppointments(data.patientIds[client.patientIndex]));
+    }
+
+    @Benchmark
+    public void showAppointmentsCaregiver(Data data, Client client, Blackhole bh) throws SQLException {
+        bh.consume(data.repository.getCaregiverAppointments(data.caregiverIds[client.caregiverIndex]));
+    }
+}
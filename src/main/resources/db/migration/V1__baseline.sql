@@ -0,0 +1,48 @@
+-- Tables as the scheduler uses them. Each table is only created if it is missing, so this
+-- also runs cleanly against a database that was set up by hand before migrations existed.
+
+IF OBJECT_ID('Caregiver', 'U') IS NULL
+CREATE TABLE Caregiver (
+    caregiverId INT IDENTITY(1, 1) PRIMARY KEY,
+    username VARCHAR(255) NOT NULL CONSTRAINT UQ_Caregiver_username UNIQUE,
+    salt BINARY(16) NOT NULL,
+    hash BINARY(16) NOT NULL
+);
+GO
+
+IF OBJECT_ID('Patient', 'U') IS NULL
+CREATE TABLE Patient (
+    patientId INT IDENTITY(1, 1) PRIMARY KEY,
+    username VARCHAR(255) NOT NULL CONSTRAINT UQ_Patient_username UNIQUE,
+    salt BINARY(16) NOT NULL,
+    hash BINARY(16) NOT NULL
+);
+GO
+
+IF OBJECT_ID('Vaccine', 'U') IS NULL
+CREATE TABLE Vaccine (
+    vaccineId INT IDENTITY(1, 1) PRIMARY KEY,
+    name VARCHAR(255) NOT NULL CONSTRAINT UQ_Vaccine_name UNIQUE,
+    quantity INT NOT NULL
+);
+GO
+
+-- inserted as VALUES (dateAvailable, username, isAvailable), so the column order matters
+IF OBJECT_ID('Availabilities', 'U') IS NULL
+CREATE TABLE Availabilities (
+    dateAvailable DATE NOT NULL,
+    username VARCHAR(255) NOT NULL REFERENCES Caregiver (username),
+    isAvailable BIT NOT NULL DEFAULT 1,
+    PRIMARY KEY (dateAvailable, username)
+);
+GO
+
+IF OBJECT_ID('VaccineAppointment', 'U') IS NULL
+CREATE TABLE VaccineAppointment (
+    appointmentId INT IDENTITY(1, 1) PRIMARY KEY,
+    patientId INT NOT NULL REFERENCES Patient (patientId),
+    date DATE NOT NULL,
+    caregiverId INT NOT NULL REFERENCES Caregiver (caregiverId),
+    vaccineId INT NOT NULL REFERENCES Vaccine (vaccineId)
+);
+GO
@@ -0,0 +1,36 @@
+-- Secondary indexes for the queries on the command paths.
+
+-- free caregivers on a date (search, and the availability index load)
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_Availabilities_date_available')
+CREATE INDEX IX_Availabilities_date_available ON Availabilities (dateAvailable, isAvailable) INCLUDE (username);
+GO
+
+-- a caregiver's own dates (bulk upload conflict check)
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_Availabilities_username_date')
+CREATE INDEX IX_Availabilities_username_date ON Availabilities (username, dateAvailable) INCLUDE (isAvailable);
+GO
+
+-- show_appointments pages and cancel checks, keyed by owner then appointment id
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_VaccineAppointment_patient')
+CREATE INDEX IX_VaccineAppointment_patient ON VaccineAppointment (patientId, appointmentId)
+    INCLUDE (date, caregiverId, vaccineId);
+GO
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_VaccineAppointment_caregiver')
+CREATE INDEX IX_VaccineAppointment_caregiver ON VaccineAppointment (caregiverId, appointmentId)
+    INCLUDE (date, patientId, vaccineId);
+GO
+
+-- vaccine lookups by name, answered without touching the table
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_Vaccine_name')
+CREATE INDEX IX_Vaccine_name ON Vaccine (name) INCLUDE (quantity);
+GO
+
+-- logins read the salt and hash by username
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_Patient_login')
+CREATE INDEX IX_Patient_login ON Patient (username) INCLUDE (salt, hash);
+GO
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_Caregiver_login')
+CREATE INDEX IX_Caregiver_login ON Caregiver (username) INCLUDE (salt, hash);
+GO
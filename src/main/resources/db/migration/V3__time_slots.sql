@@ -0,0 +1,24 @@
+-- Time slots: each availability row keeps a mask of its free slots (bit i = slot i free, see
+-- TimeSlots) and each appointment the slot it booked. -1 means every slot free whatever the
+-- slot length, so new rows need no value; the code ignores bits past the last slot of the day.
+
+IF COL_LENGTH('Availabilities', 'slots') IS NULL
+ALTER TABLE Availabilities ADD slots BIGINT NOT NULL CONSTRAINT DF_Availabilities_slots DEFAULT -1;
+GO
+
+IF COL_LENGTH('VaccineAppointment', 'slot') IS NULL
+ALTER TABLE VaccineAppointment ADD slot INT NOT NULL CONSTRAINT DF_VaccineAppointment_slot DEFAULT 0;
+GO
+
+-- days booked before slots existed hold their appointment in slot 0
+UPDATE Availabilities SET slots = ~CAST(1 AS BIGINT) WHERE isAvailable = 0;
+GO
+
+-- show_appointments now also reads the slot
+CREATE INDEX IX_VaccineAppointment_patient ON VaccineAppointment (patientId, appointmentId)
+    INCLUDE (date, slot, caregiverId, vaccineId) WITH (DROP_EXISTING = ON);
+GO
+
+CREATE INDEX IX_VaccineAppointment_caregiver ON VaccineAppointment (caregiverId, appointmentId)
+    INCLUDE (date, slot, patientId, vaccineId) WITH (DROP_EXISTING = ON);
+GO
@@ -0,0 +1,11 @@
+-- Journal entries replayed after a clinic was offline (see OfflineJournal). An entry's row is
+-- written in the same transaction as its changes, so replaying it a second time does nothing.
+
+IF OBJECT_ID('JournalReplay', 'U') IS NULL
+CREATE TABLE JournalReplay (
+    journalId CHAR(36) NOT NULL,
+    sequence BIGINT NOT NULL,
+    replayedAt DATETIME2 NOT NULL CONSTRAINT DF_JournalReplay_replayedAt DEFAULT SYSUTCDATETIME(),
+    CONSTRAINT PK_JournalReplay PRIMARY KEY (journalId, sequence)
+);
+GO
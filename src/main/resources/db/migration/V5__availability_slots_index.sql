@@ -0,0 +1,10 @@
+-- The availability index load and search read slots too (V3), so the date index covers it
+-- and those queries no longer look up every row in the table.
+
+IF EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_Availabilities_date_available')
+CREATE INDEX IX_Availabilities_date_available ON Availabilities (dateAvailable, isAvailable)
+    INCLUDE (username, slots) WITH (DROP_EXISTING = ON);
+ELSE
+CREATE INDEX IX_Availabilities_date_available ON Availabilities (dateAvailable, isAvailable)
+    INCLUDE (username, slots);
+GO
@@ -0,0 +1,86 @@
+package scheduler;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.Repositories;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a command script without prompts, for nightly jobs and onboarding scripts.
+ *
+ * Commands run in order on one session. With the database engine the whole run uses a single
+ * pinned connection, and runs of consecutive add_doses or single-date upload_availability lines
+ * are handed to the processor as one group, so each run costs one batched round trip instead of
+ * one per line. Blank lines and lines starting with '#' are ignored. A summary with the command
+ * rate and the number of failed commands is printed at the end.
+ */
+public class BatchRunner {
+
+    private final BufferedReader in;
+    private final PrintStream out;
+
+    public BatchRunner(BufferedReader in, PrintStream out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    // returns the number of failed commands
+    public int run() throws IOException {
+        CommandProcessor processor = new CommandProcessor(out);
+        boolean pinned = false;
+        if (Repositories.usesDatabase()) {
+            try {
+                ConnectionManager.pin();
+                pinned = true;
+            } catch (SQLException e) {
+                // fall back to borrowing per command
+                e.printStackTrace();
+            }
+        }
+
+        long start = System.nanoTime();
+        List<String> group = new ArrayList<>();
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if (CommandProcessor.isGroupable(line)) {
+                    if (!group.isEmpty() && !sameOperation(group.get(0), line)) {
+                        processor.executeGroup(group);
+                        group.clear();
+                    }
+                    group.add(line);
+                    continue;
+                }
+                processor.executeGroup(group);
+                group.clear();
+                if (!processor.execute(line)) {
+                    break;
+                }
+            }
+            processor.executeGroup(group);
+        } finally {
+            if (pinned) {
+                ConnectionManager.unpin();
+            }
+        }
+
+        long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        out.println("Batch finished: " + processor.getCommands() + " commands in " + elapsedMillis + " ms ("
+                + (processor.getCommands() * 1000L / elapsedMillis) + " commands/sec), "
+                + processor.getFailedCommands() + " failed");
+        return processor.getFailedCommands();
+    }
+
+    private static boolean sameOperation(String a, String b) {
+        return a.substring(0, a.indexOf(' ')).equals(b.substring(0, b.indexOf(' ')));
+    }
+}
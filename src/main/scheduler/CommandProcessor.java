@@ -0,0 +1,1018 @@
+package scheduler;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.ConnectionPool;
+import scheduler.db.Repositories;
+import scheduler.db.SqlTracer;
+import scheduler.metrics.LatencyRecorder;
+import scheduler.metrics.Metrics;
+import scheduler.model.AppointmentDetail;
+import scheduler.model.AppointmentQuery;
+import scheduler.model.AvailabilityUpload;
+import scheduler.model.Caregiver;
+import scheduler.model.DoseManifest;
+import scheduler.model.Patient;
+import scheduler.model.Reservation;
+import scheduler.model.TimeSlots;
+import scheduler.model.Vaccine;
+import scheduler.util.PasswordHasher;
+import scheduler.util.Util;
+import scheduler.waitlist.Waitlist;
+import scheduler.waitlist.WaitlistAssignment;
+import scheduler.waitlist.WaitlistRequest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Runs scheduler commands for one user session.
+ *
+ * Each console or server connection gets its own processor, with its own logged-in user and
+ * output stream; storage and connections are shared through Repositories.
+ */
+public class CommandProcessor {
+
+    // command names with their own latency recorder; anything else is recorded as "invalid"
+    private static final Set<String> COMMANDS = new HashSet<>(Arrays.asList("create_patient", "create_caregiver",
+            "login_patient", "login_caregiver", "search_caregiver_schedule", "reserve", "upload_availability",
+            "cancel", "add_doses", "import_doses", "show_appointments", "waitlist", "stats", "logout", "quit"));
+
+    // appointments per show_appointments page unless a limit is given
+    private static final int SHOW_APPOINTMENTS_PAGE_SIZE = Util.getEnvInt("ShowAppointmentsPageSize", 100);
+
+    // longest range a single upload_availability or search_caregiver_schedule may cover
+    private static final int MAX_RANGE_DAYS = 366;
+
+    // how a day is split into bookable slots; times are only shown when there is more than one
+    private static final TimeSlots SLOTS = TimeSlots.configured();
+
+    // the user logged in on this connection; only one user can be logged-in at a time
+    private final Session session = new Session();
+    private final PrintStream out;
+
+    // commands run and commands that reported an error, for batch summaries
+    private int commands = 0;
+    private int failedCommands = 0;
+    private boolean failed = false;
+
+    public CommandProcessor(PrintStream out) {
+        this.out = out;
+    }
+
+    public int getCommands() {
+        return commands;
+    }
+
+    public int getFailedCommands() {
+        return failedCommands;
+    }
+
+    public void printGreeting() {
+        out.println();
+        out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
+        out.println("*** Please enter one of the following commands ***");
+        out.println("> create_patient <username> <password>");
+        out.println("> create_caregiver <username> <password>");
+        out.println("> login_patient <username> <password>");
+        out.println("> login_caregiver <username> <password>");
+        out.println("> search_caregiver_schedule <date>");
+        out.println("> search_caregiver_schedule <start_date> <end_date>");
+        out.println("> reserve <date> [<time>] <vaccine>");
+        out.println("> upload_availability <date>");
+        out.println("> upload_availability <start_date> <end_date> [MON,TUE,...]");
+        out.println("> cancel <appointment_id>");
+        out.println("> add_doses <vaccine> <number>");
+        out.println("> import_doses <csv file>");
+        out.println("> show_appointments [after <id>] [limit <n>] [from <date>] [to <date>]");
+        out.println("> waitlist <start_date> <end_date> <vaccine>");
+        out.println("> waitlist [leave]");
+        out.println("> stats [reset|sql]");
+        out.println("> logout");
+        out.println("> quit");
+        out.println();
+    }
+
+    // runs one input line; returns false once the user has asked to quit
+    public boolean execute(String line) {
+        String operation = line.split(" ")[0];
+        LatencyRecorder recorder = Metrics.command(COMMANDS.contains(operation) ? operation : "invalid");
+        long start = System.nanoTime();
+        startCommand();
+        try {
+            reportWaitlistBookings();
+            return dispatch(line);
+        } finally {
+            endCommand();
+            recorder.recordSince(start);
+        }
+    }
+
+    private boolean dispatch(String line) {
+        // split the user input by spaces
+        String[] tokens = line.split(" ");
+        // check if input exists
+        if (tokens.length == 0) {
+            fail("Please try again!");
+            return true;
+        }
+        // determine which operation to perform
+        String operation = tokens[0];
+        try {
+            if (operation.equals("create_patient")) {
+                createPatient(tokens);
+            } else if (operation.equals("create_caregiver")) {
+                createCaregiver(tokens);
+            } else if (operation.equals("login_patient")) {
+                loginPatient(tokens);
+            } else if (operation.equals("login_caregiver")) {
+                loginCaregiver(tokens);
+            } else if (operation.equals("search_caregiver_schedule")) {
+                searchCaregiverSchedule(tokens);
+            } else if (operation.equals("reserve")) {
+                reserve(tokens);
+            } else if (operation.equals("upload_availability")) {
+                uploadAvailability(tokens);
+            } else if (operation.equals("cancel")) {
+                cancel(tokens);
+            } else if (operation.equals("add_doses")) {
+                addDoses(tokens);
+            } else if (operation.equals("import_doses")) {
+                importDoses(tokens);
+            } else if (operation.equals("show_appointments")) {
+                showAppointments(tokens);
+            } else if (operation.equals("waitlist")) {
+                waitlist(tokens);
+            } else if (operation.equals("stats")) {
+                stats(tokens);
+            } else if (operation.equals("logout")) {
+                logout(tokens);
+            } else if (operation.equals("quit")) {
+                out.println("Bye!");
+                return false;
+            } else {
+                fail("Invalid operation name!");
+            }
+        } catch (Exception e) {
+            fail("Please try again!");
+            e.printStackTrace();
+        }
+        return true;
+    }
+
+    // true for commands that executeGroup can combine with the next commands of the same kind
+    public static boolean isGroupable(String line) {
+        String[] tokens = line.split(" ");
+        return (tokens[0].equals("add_doses") && tokens.length == 3)
+                || (tokens[0].equals("upload_availability") && tokens.length == 2);
+    }
+
+    /**
+     * Runs consecutive commands of one groupable kind (see isGroupable) as one storage call:
+     * add_doses lines become one dose import and single-date upload_availability lines one bulk
+     * upload. Each line still counts, and reports, as its own command. Doses are summed per
+     * vaccine before they are checked, so a removal that only fits after a later addition in
+     * the same group is accepted.
+     */
+    public void executeGroup(List<String> lines) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        if (lines.size() == 1 || !session.isCaregiver()) {
+            for (String line : lines) {
+                execute(line);
+            }
+            return;
+        }
+        String operation = lines.get(0).split(" ")[0];
+        long start = System.nanoTime();
+        try {
+            if (operation.equals("add_doses")) {
+                addDosesGroup(lines);
+            } else {
+                uploadAvailabilityGroup(lines);
+            }
+        } catch (RuntimeException | SQLException e) {
+            for (int i = 0; i < lines.size(); i++) {
+                startCommand();
+                fail("Please try again!");
+                endCommand();
+            }
+            e.printStackTrace();
+        } finally {
+            Metrics.command(operation + " (group)").recordSince(start);
+        }
+    }
+
+    private void addDosesGroup(List<String> lines) throws SQLException {
+        Map<String, Integer> totals = new LinkedHashMap<>();
+        String[] names = new String[lines.size()];
+        for (int i = 0; i < lines.size(); i++) {
+            String[] tokens = lines.get(i).split(" ");
+            try {
+                totals.merge(tokens[1], Integer.parseInt(tokens[2]), Math::addExact);
+                names[i] = tokens[1];
+            } catch (NumberFormatException | ArithmeticException e) {
+                names[i] = null;
+            }
+        }
+        Map<String, String> refused = Repositories.get().importDoses(totals);
+        for (String name : names) {
+            startCommand();
+            if (name == null) {
+                fail("Please try again!");
+            } else if (refused.containsKey(name)) {
+                fail("Error occurred when adding doses: " + refused.get(name));
+            } else {
+                out.println("Doses updated!");
+            }
+            endCommand();
+        }
+        offerDosesToWaitlist(totals, refused);
+    }
+
+    private void uploadAvailabilityGroup(List<String> lines) throws SQLException {
+        Date[] dates = new Date[lines.size()];
+        List<Date> valid = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            try {
+                dates[i] = Date.valueOf(lines.get(i).split(" ")[1]);
+                valid.add(dates[i]);
+            } catch (IllegalArgumentException e) {
+                dates[i] = null;
+            }
+        }
+        AvailabilityUpload upload = session.getCaregiver().uploadAvailability(valid);
+        Set<Date> uploaded = new HashSet<>(upload.getUploaded());
+        for (Date date : dates) {
+            startCommand();
+            if (date == null) {
+                fail("Please enter a valid date!");
+            } else if (uploaded.remove(date)) {
+                out.println("Availability uploaded!");
+            } else {
+                fail("Error occurred when uploading availability");
+            }
+            endCommand();
+        }
+        offerToWaitlist(waitlist -> waitlist.availabilityAdded(upload.getUploaded()));
+    }
+
+    private void startCommand() {
+        commands++;
+        failed = false;
+    }
+
+    private void endCommand() {
+        if (failed) {
+            failedCommands++;
+        }
+    }
+
+    // prints an error message and marks the current command as failed
+    private void fail(String message) {
+        failed = true;
+        out.println(message);
+    }
+
+    private void createPatient(String[] tokens) {
+        if (tokens.length != 3) {
+            fail("Failed to create user.");
+            return;
+        }
+        String username = tokens[1];
+        String password = tokens[2];
+        if (usernameExistsPatient(username)) {
+            fail("Username taken, try again!");
+            return;
+        }
+        try {
+            byte[] salt = Util.generateSalt();
+            byte[] hash = PasswordHasher.shared().hash(password, salt);
+            Patient newPatient = new Patient.PatientBuilder(username, salt, hash).build();
+            newPatient.saveToDB();
+            out.println("Created user " + username);
+        } catch (RejectedExecutionException e) {
+            fail("Server is busy, please try again!");
+        } catch (SQLException e) {
+            if (e.getMessage().contains("duplicate key value")) {
+                fail("Username taken, try again!");
+            } else {
+                fail("Failed to create user.");
+            }
+        } catch (Exception e) {
+            fail("Failed to create user.");
+        }
+    }
+
+
+    private void createCaregiver(String[] tokens) {
+        if (tokens.length != 3) {
+            fail("Failed to create user.");
+            return;
+        }
+        String username = tokens[1];
+        String password = tokens[2];
+        if (usernameExistsCaregiver(username)) {
+            fail("Username taken, try again!");
+            return;
+        }
+        try {
+            byte[] salt = Util.generateSalt();
+            byte[] hash = PasswordHasher.shared().hash(password, salt);
+            Caregiver caregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build(); 
+            caregiver.saveToDB();
+            out.println("Created user " + username);
+        } catch (RejectedExecutionException e) {
+            fail("Server is busy, please try again!");
+        } catch (SQLException e) {
+            fail("Failed to create user.");
+            e.printStackTrace();
+        }
+    }
+    private boolean usernameExistsPatient(String username) {
+        try {
+            return Repositories.get().patientExists(username);
+        } catch (SQLException e) {
+            fail("Error occurred when checking username");
+            e.printStackTrace();
+        }
+        return true;
+    }
+    private boolean usernameExistsCaregiver(String username) {
+        try {
+            return Repositories.get().caregiverExists(username);
+        } catch (SQLException e) {
+            fail("Error occurred when checking username");
+            e.printStackTrace();
+        }
+        return true;
+    }
+
+    private void loginPatient(String[] tokens) {
+        if (tokens.length != 3) {
+            fail("Failed to login user.");
+            return;
+        }
+        String username = tokens[1];
+        String password = tokens[2];
+        try {
+            if (session.isPatient()) {
+                fail("User already logged in.");
+                return;
+            }
+            Patient patient = new Patient.PatientGetter(username, password).get();
+            if (patient != null) {
+                session.loginPatient(patient);
+                out.println("Logged in as: " + username);
+            } else {
+                fail("Login failed.");
+            }
+        } catch (RejectedExecutionException e) {
+            fail("Server is busy, please try again!");
+        } catch (Exception e) {
+            fail("Login failed.");
+        }
+    }
+
+
+    private void loginCaregiver(String[] tokens) {
+
+        if (session.isLoggedIn()) {
+            fail("User already logged in.");
+            return;
+        }
+        if (tokens.length != 3) {
+            fail("Login failed.");
+            return;
+        }
+        String username = tokens[1];
+        String password = tokens[2];
+
+        Caregiver caregiver = null;
+        try {
+            caregiver = new Caregiver.CaregiverGetter(username, password).get();
+        } catch (RejectedExecutionException e) {
+            fail("Server is busy, please try again!");
+            return;
+        } catch (SQLException e) {
+            fail("Login failed.");
+            e.printStackTrace();
+        }
+        if (caregiver == null) {
+            fail("Login failed.");
+        } else {
+            try {
+                session.loginCaregiver(caregiver);
+                out.println("Logged in as: " + username);
+            } catch (SQLException e) {
+                fail("Login failed.");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void searchCaregiverSchedule(String[] tokens) {
+        if (!session.isLoggedIn()) {
+            fail("Please login first!");
+            return;
+        }
+
+        if (tokens.length == 3) {
+            searchCaregiverScheduleRange(tokens);
+            return;
+        }
+        if (tokens.length != 2) {
+            fail("Please provide a date!");
+            return;
+        }
+
+        Date date;
+        try {
+            date = Date.valueOf(tokens[1]);
+        } catch (IllegalArgumentException e) {
+            fail("Invalid date format. Please provide a date in the format: yyyy-mm-dd");
+            return;
+        }
+
+        try {
+            Map<String, Long> caregivers = Repositories.get().getFreeSlots(date);
+            for (Map.Entry<String, Long> caregiver : caregivers.entrySet()) {
+                out.println("Caregiver username: " + caregiver.getKey());
+                out.println("Appointment Date: " + date);
+                if (!SLOTS.isWholeDay()) {
+                    out.println("Free times: " + SLOTS.describe(caregiver.getValue()));
+                }
+            }
+            if (caregivers.isEmpty()) {
+                out.println("No caregivers available on this date. Please try a different date!");
+                return;
+            }
+
+        } catch (SQLException e) {
+            fail("Error while searching for schedules.");
+            e.printStackTrace();
+        }
+
+        try {
+            for (Vaccine vaccine : Repositories.get().getVaccines()) {
+                out.println("Vaccine name: " + vaccine.getVaccineName());
+                out.println("Available doses: " + vaccine.getAvailableDoses());
+            }
+
+        } catch (SQLException e) {
+            fail("Error while searching for vaccines.");
+            e.printStackTrace();
+        }
+    }
+
+    // search_caregiver_schedule <start> <end>: free caregivers per day and the current stock
+    private void searchCaregiverScheduleRange(String[] tokens) {
+        Date start;
+        Date end;
+        try {
+            start = Date.valueOf(tokens[1]);
+            end = Date.valueOf(tokens[2]);
+        } catch (IllegalArgumentException e) {
+            fail("Invalid date format. Please provide a date in the format: yyyy-mm-dd");
+            return;
+        }
+        if (end.before(start) || ChronoUnit.DAYS.between(start.toLocalDate(), end.toLocalDate()) >= MAX_RANGE_DAYS) {
+            fail("Please enter a range of at most " + MAX_RANGE_DAYS + " days!");
+            return;
+        }
+
+        try {
+            for (Map.Entry<Date, Integer> day : Repositories.get().countAvailableCaregivers(start, end).entrySet()) {
+                out.println(day.getKey() + ": " + day.getValue() + " caregivers available");
+            }
+            for (Vaccine vaccine : Repositories.get().getVaccines()) {
+                out.println("Vaccine name: " + vaccine.getVaccineName());
+                out.println("Available doses: " + vaccine.getAvailableDoses());
+            }
+        } catch (SQLException e) {
+            fail("Error while searching for schedules.");
+            e.printStackTrace();
+        }
+    }
+
+    private void reserve(String[] tokens) {
+        if (session.isCaregiver()) {
+            fail("Please login as a patient!");
+            return;
+        }
+        if (!session.isPatient()) {
+            fail("Please login first!");
+            return;
+        }
+
+        if (tokens.length != 3 && tokens.length != 4) {
+            fail("Please provide a date and vaccine name!");
+            return;
+        }
+
+        Date date;
+        try {
+            date = Date.valueOf(tokens[1]);
+        } catch (IllegalArgumentException e) {
+            fail("Invalid date format. Please provide a date in the format: yyyy-mm-dd");
+            return;
+        }
+
+        // reserve <date> <time> <vaccine> asks for the slot starting at that time
+        int slot = TimeSlots.ANY;
+        if (tokens.length == 4) {
+            slot = SLOTS.parse(tokens[2]);
+            if (slot < 0) {
+                fail("Please provide the start of a time slot, e.g. " + SLOTS.start(0));
+                return;
+            }
+        }
+        String vaccineName = tokens[tokens.length - 1];
+
+        try {
+            Reservation reservation = Repositories.get().reserve(session.getUserId(), date, slot, vaccineName);
+            if (reservation.getStatus() == Reservation.Status.NO_DOSES) {
+                fail("Not enough available doses!");
+                return;
+            }
+            if (reservation.getStatus() == Reservation.Status.NO_CAREGIVER) {
+                fail("No Caregiver is available!");
+                out.println("To be booked as soon as one is, use: waitlist " + date + " <end_date> " + vaccineName);
+                return;
+            }
+            if (reservation.getStatus() == Reservation.Status.JOURNALED) {
+                out.println("Booked offline as journal entry " + reservation.getJournalSequence() + ", Caregiver username: "
+                        + reservation.getCaregiverUsername() + (SLOTS.isWholeDay() ? "" : ", Time: " + SLOTS.start(reservation.getSlot())));
+                out.println("The appointment ID is assigned once the database is reachable again.");
+                return;
+            }
+            out.println("Appointment ID: " + reservation.getAppointmentId() + ", Caregiver username: " + reservation.getCaregiverUsername()
+                    + (SLOTS.isWholeDay() ? "" : ", Time: " + SLOTS.start(reservation.getSlot())));
+        } catch (SQLException e) {
+            fail("Please try again!");
+            e.printStackTrace();
+        }
+    }
+
+
+
+    private void uploadAvailability(String[] tokens) {
+
+        if (!session.isCaregiver()) {
+            fail("Please login as a caregiver first!");
+            return;
+        }
+        if (tokens.length >= 3 && tokens.length <= 4) {
+            uploadAvailabilityRange(tokens);
+            return;
+        }
+        if (tokens.length != 2) {
+            fail("Please try again!");
+            return;
+        }
+        String date = tokens[1];
+        try {
+            Date d = Date.valueOf(date);
+            session.getCaregiver().uploadAvailability(d);
+            out.println("Availability uploaded!");
+            offerToWaitlist(waitlist -> waitlist.availabilityAdded(Collections.singletonList(d)));
+        } catch (IllegalArgumentException e) {
+            fail("Please enter a valid date!");
+        } catch (SQLException e) {
+            fail("Error occurred when uploading availability");
+            e.printStackTrace();
+        }
+    }
+
+    // upload_availability <start> <end> [weekdays, e.g. MON,WED,FRI]: every matching date in the range
+    private void uploadAvailabilityRange(String[] tokens) {
+        LocalDate start;
+        LocalDate end;
+        Set<DayOfWeek> weekdays;
+        try {
+            start = Date.valueOf(tokens[1]).toLocalDate();
+            end = Date.valueOf(tokens[2]).toLocalDate();
+        } catch (IllegalArgumentException e) {
+            fail("Please enter a valid date!");
+            return;
+        }
+        try {
+            weekdays = tokens.length == 4 ? parseWeekdays(tokens[3]) : EnumSet.allOf(DayOfWeek.class);
+        } catch (IllegalArgumentException e) {
+            fail("Please enter weekdays as a comma separated list, e.g. MON,WED,FRI");
+            return;
+        }
+        if (end.isBefore(start) || ChronoUnit.DAYS.between(start, end) >= MAX_RANGE_DAYS) {
+            fail("Please enter a range of at most " + MAX_RANGE_DAYS + " days!");
+            return;
+        }
+
+        List<Date> dates = new ArrayList<>();
+        for (LocalDate day = start; !day.isAfter(end); day = day.plusDays(1)) {
+            if (weekdays.contains(day.getDayOfWeek())) {
+                dates.add(Date.valueOf(day));
+            }
+        }
+        try {
+            AvailabilityUpload upload = session.getCaregiver().uploadAvailability(dates);
+            out.println("Availability uploaded for " + upload.getUploaded().size() + " of " + dates.size() + " dates!");
+            for (Map.Entry<Date, String> conflict : upload.getConflicts().entrySet()) {
+                out.println("Skipped " + conflict.getKey() + ": " + conflict.getValue());
+            }
+            offerToWaitlist(waitlist -> waitlist.availabilityAdded(upload.getUploaded()));
+        } catch (SQLException e) {
+            fail("Error occurred when uploading availability");
+            e.printStackTrace();
+        }
+    }
+
+    // accepts MON or MONDAY, in any case
+    private static Set<DayOfWeek> parseWeekdays(String list) {
+        Set<DayOfWeek> weekdays = EnumSet.noneOf(DayOfWeek.class);
+        for (String name : list.split(",")) {
+            String day = name.trim().toUpperCase();
+            boolean matched = false;
+            for (DayOfWeek candidate : DayOfWeek.values()) {
+                if (candidate.name().equals(day) || candidate.name().substring(0, 3).equals(day)) {
+                    weekdays.add(candidate);
+                    matched = true;
+                }
+            }
+            if (!matched) {
+                throw new IllegalArgumentException("Unknown weekday: " + name);
+            }
+        }
+        return weekdays;
+    }
+
+    private void cancel(String[] tokens) {
+        if (!session.isLoggedIn()) {
+            fail("Please login first!");
+            return;
+        }
+
+        if (tokens.length != 2) {
+            fail("Please provide an appointment id!");
+            return;
+        }
+
+        int appointmentId;
+        try {
+            appointmentId = Integer.parseInt(tokens[1]);
+        } catch (NumberFormatException e) {
+            fail("Invalid appointment id format. Please provide a valid appointment id.");
+            return;
+        }
+
+        try {
+            boolean cancelled;
+            if (session.isPatient()) {
+                cancelled = Repositories.get().cancelPatientAppointment(appointmentId, session.getUserId());
+            } else {
+                cancelled = Repositories.get().cancelCaregiverAppointment(appointmentId, session.getUserId());
+            }
+            if (!cancelled) {
+                fail("No such appointment found!");
+                return;
+            }
+            out.println("Appointment cancelled successfully.");
+            offerToWaitlist(Waitlist::appointmentCancelled);
+
+        } catch (SQLException e) {
+            fail("Please try again!");
+            e.printStackTrace();
+        }
+    }
+
+
+
+    private void addDoses(String[] tokens) {
+        if (!session.isCaregiver()) {
+            fail("Please login as a caregiver first!");
+            return;
+        }
+        if (tokens.length != 3) {
+            fail("Please try again!");
+            return;
+        }
+        String vaccineName = tokens[1];
+        int doses = Integer.parseInt(tokens[2]);
+        Vaccine vaccine = null;
+        boolean applied = false;
+        try {
+            vaccine = new Vaccine.VaccineGetter(vaccineName).get();
+        } catch (SQLException e) {
+            fail("Error occurred when adding doses");
+            e.printStackTrace();
+        }
+        if (vaccine == null) {
+            try {
+                vaccine = new Vaccine.VaccineBuilder(vaccineName, doses).build();
+                vaccine.saveToDB();
+                applied = true;
+            } catch (SQLException e) {
+                fail("Error occurred when adding doses");
+                e.printStackTrace();
+            }
+        } else {
+            // if the vaccine is not null, meaning that the vaccine already exists in our table
+            try {
+                vaccine.increaseAvailableDoses(doses);
+                applied = true;
+            } catch (SQLException e) {
+                fail("Error occurred when adding doses");
+                e.printStackTrace();
+            }
+        }
+        if (!applied) {
+            return;
+        }
+        out.println("Doses updated!");
+        // only doses that actually went in can be handed to waiting patients
+        if (doses > 0) {
+            offerToWaitlist(waitlist -> waitlist.dosesAdded(vaccineName));
+        }
+    }
+
+    // import_doses <file>: applies a CSV manifest of "vaccine,quantity" lines in one batch
+    private void importDoses(String[] tokens) {
+        if (!session.isCaregiver()) {
+            fail("Please login as a caregiver first!");
+            return;
+        }
+        if (tokens.length != 2) {
+            fail("Please try again!");
+            return;
+        }
+        long start = System.nanoTime();
+        DoseManifest manifest;
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(tokens[1]), StandardCharsets.UTF_8)) {
+            manifest = DoseManifest.read(reader);
+        } catch (IOException e) {
+            fail("Could not read " + tokens[1]);
+            return;
+        }
+        try {
+            Map<String, String> refused = Repositories.get().importDoses(manifest.getTotals());
+            for (Map.Entry<String, String> entry : refused.entrySet()) {
+                manifest.reject(entry.getKey() + ": " + entry.getValue());
+            }
+            offerDosesToWaitlist(manifest.getTotals(), refused);
+        } catch (SQLException e) {
+            fail("Error occurred when importing doses");
+            e.printStackTrace();
+            return;
+        }
+        long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        out.println("Read " + manifest.getLines() + " lines for " + manifest.getTotals().size() + " vaccines in "
+                + elapsedMillis + " ms (" + (manifest.getLines() * 1000L / elapsedMillis) + " lines/sec)");
+        out.println("Rejected: " + manifest.getRejected().size());
+        for (String reason : manifest.getRejected()) {
+            out.println("  " + reason);
+        }
+    }
+
+    // show_appointments [after <id>] [limit <n>] [from <date>] [to <date>]: one page, printed as it is read
+    private void showAppointments(String[] tokens) throws SQLException {
+        if (!session.isLoggedIn()) {
+            fail("Please login first!");
+            return;
+        }
+
+        AppointmentQuery query;
+        try {
+            query = parseAppointmentQuery(tokens);
+        } catch (IllegalArgumentException e) {
+            fail("Please try again! Usage: show_appointments [after <id>] [limit <n>] [from <date>] [to <date>]");
+            return;
+        }
+
+        try {
+            String counterpartLabel = session.isPatient() ? "caregiver name: " : "patient name: ";
+            int[] lastId = {query.getAfterId()};
+            Consumer<AppointmentDetail> printer = appointment -> {
+                out.println("AppointmentID: " + appointment.getAppointmentId() + " " + "vaccine name: " + appointment.getVaccineName() + " " + "date: " + appointment.getDate() + " "
+                        + (SLOTS.isWholeDay() ? "" : "time: " + SLOTS.start(appointment.getSlot()) + " ") + counterpartLabel + appointment.getCounterpartUsername());
+                lastId[0] = appointment.getAppointmentId();
+            };
+            int count;
+            if (session.isPatient()) {
+                count = Repositories.get().streamPatientAppointments(session.getUserId(), query, printer);
+            } else {
+                count = Repositories.get().streamCaregiverAppointments(session.getUserId(), query, printer);
+            }
+            if (count == 0) {
+                out.println("No appointments found");
+                return;
+            }
+            if (count == query.getLimit()) {
+                out.println("More appointments may follow: show_appointments after " + lastId[0] + " limit " + query.getLimit()
+                        + (query.getFrom() != null ? " from " + query.getFrom() : "")
+                        + (query.getTo() != null ? " to " + query.getTo() : ""));
+            }
+
+        } catch (SQLException e) {
+            fail("Please try again!");
+            e.printStackTrace();
+        }
+    }
+
+    private static AppointmentQuery parseAppointmentQuery(String[] tokens) {
+        AppointmentQuery.AppointmentQueryBuilder builder = new AppointmentQuery.AppointmentQueryBuilder()
+                .limit(SHOW_APPOINTMENTS_PAGE_SIZE);
+        if (tokens.length % 2 != 1) {
+            throw new IllegalArgumentException("Options come in pairs");
+        }
+        for (int i = 1; i < tokens.length; i += 2) {
+            String value = tokens[i + 1];
+            switch (tokens[i]) {
+                case "after":
+                    builder.after(Integer.parseInt(value));
+                    break;
+                case "limit":
+                    builder.limit(Integer.parseInt(value));
+                    break;
+                case "from":
+                    builder.from(Date.valueOf(value));
+                    break;
+                case "to":
+                    builder.to(Date.valueOf(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + tokens[i]);
+            }
+        }
+        return builder.build();
+    }
+
+    // waitlist <start> <end> <vaccine> queues the patient for the first free caregiver in the range;
+    // waitlist shows the patient's place and waitlist leave drops the request
+    private void waitlist(String[] tokens) {
+        if (session.isCaregiver()) {
+            fail("Please login as a patient!");
+            return;
+        }
+        if (!session.isPatient()) {
+            fail("Please login first!");
+            return;
+        }
+        Waitlist waitlist = Waitlist.shared();
+        if (tokens.length == 1) {
+            WaitlistRequest request = waitlist.getRequest(session.getUserId());
+            if (request == null) {
+                out.println("You are not on the waitlist");
+                return;
+            }
+            LocalDateTime joined = LocalDateTime.ofInstant(Instant.ofEpochMilli(request.getJoinedAt()), ZoneId.systemDefault());
+            out.println("Waiting for " + request.getVaccineName() + " between " + request.getStart() + " and "
+                    + request.getEnd() + " since " + joined.truncatedTo(ChronoUnit.SECONDS)
+                    + ", position " + waitlist.position(session.getUserId()) + " of " + waitlist.size());
+            return;
+        }
+        if (tokens.length == 2 && tokens[1].equals("leave")) {
+            if (!waitlist.leave(session.getUserId())) {
+                fail("You are not on the waitlist");
+                return;
+            }
+            out.println("Left the waitlist");
+            return;
+        }
+        if (tokens.length != 4) {
+            fail("Please try again! Usage: waitlist <start_date> <end_date> <vaccine>");
+            return;
+        }
+
+        Date start;
+        Date end;
+        try {
+            start = Date.valueOf(tokens[1]);
+            end = Date.valueOf(tokens[2]);
+        } catch (IllegalArgumentException e) {
+            fail("Invalid date format. Please provide a date in the format: yyyy-mm-dd");
+            return;
+        }
+        if (end.before(start) || ChronoUnit.DAYS.between(start.toLocalDate(), end.toLocalDate()) >= MAX_RANGE_DAYS) {
+            fail("Please enter a range of at most " + MAX_RANGE_DAYS + " days!");
+            return;
+        }
+
+        try {
+            if (Repositories.get().getVaccine(tokens[3]) == null) {
+                fail("No such vaccine: " + tokens[3]);
+                return;
+            }
+            WaitlistRequest request = waitlist.join(session.getUserId(), start, end, tokens[3]);
+            if (request == null) {
+                fail("The waitlist is full, please try again later");
+                return;
+            }
+            if (waitlist.getRequest(session.getUserId()) == request) {
+                out.println("Added to the waitlist at position " + waitlist.position(session.getUserId()));
+            }
+            reportWaitlistBookings();
+        } catch (SQLException e) {
+            fail("Please try again!");
+            e.printStackTrace();
+        }
+    }
+
+    // tells a patient about appointments the waitlist booked since the last command
+    private void reportWaitlistBookings() {
+        if (!session.isPatient()) {
+            return;
+        }
+        for (WaitlistAssignment assignment : Waitlist.shared().takeAssigned(session.getUserId())) {
+            out.println("Booked from the waitlist: " + (assignment.isJournaled()
+                    ? "offline as journal entry " + assignment.getJournalSequence() : "Appointment ID: " + assignment.getAppointmentId())
+                    + ", Caregiver username: " + assignment.getCaregiverUsername()
+                    + ", vaccine: " + assignment.getRequest().getVaccineName() + ", date: " + assignment.getDate()
+                    + (SLOTS.isWholeDay() ? "" : ", time: " + SLOTS.start(assignment.getSlot())));
+        }
+    }
+
+    private interface WaitlistEvent {
+        int fire(Waitlist waitlist) throws SQLException;
+    }
+
+    // hands freed capacity to waiting patients; a failure here does not fail the command that freed it
+    private void offerToWaitlist(WaitlistEvent event) {
+        try {
+            int booked = event.fire(Waitlist.shared());
+            if (booked > 0) {
+                out.println("Booked " + booked + " waiting patient(s) from the waitlist");
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void offerDosesToWaitlist(Map<String, Integer> changes, Map<String, String> refused) {
+        for (Map.Entry<String, Integer> change : changes.entrySet()) {
+            if (change.getValue() > 0 && !refused.containsKey(change.getKey())) {
+                offerToWaitlist(waitlist -> waitlist.dosesAdded(change.getKey()));
+            }
+        }
+    }
+
+    // stats prints latency per command and per database call; stats reset clears them and
+    // stats sql lists the most recent traced statements
+    private void stats(String[] tokens) {
+        if (tokens.length == 2 && tokens[1].equals("reset")) {
+            Metrics.reset();
+            out.println("Stats reset!");
+            return;
+        }
+        if (tokens.length == 2 && tokens[1].equals("sql")) {
+            if (!SqlTracer.isEnabled()) {
+                fail("SQL tracing is off, set SqlTrace=on to enable it");
+                return;
+            }
+            for (String trace : SqlTracer.recent()) {
+                out.println(trace);
+            }
+            return;
+        }
+        if (tokens.length != 1) {
+            fail("Please try again!");
+            return;
+        }
+        out.print(Metrics.report());
+        ConnectionPool.PoolStats pool = ConnectionManager.poolStats();
+        if (pool != null) {
+            out.println(pool);
+        }
+        out.println(PasswordHasher.shared().stats());
+    }
+
+    private void logout(String[] tokens) {
+        if (!session.isLoggedIn()) {
+            fail("Please login first!");
+        } else {
+            session.logout();
+            out.println("Successfully logged out!");
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package scheduler;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.Repositories;
+import scheduler.util.Util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves the console command protocol to many clients over a local TCP socket.
+ *
+ * Every connection gets its own CommandProcessor (and so its own logged-in user) running on its
+ * own virtual thread; all sessions share the storage engine and the connection pool. A client's
+ * quit only ends that client's connection.
+ */
+public class SchedulerServer {
+
+    private final int port;
+    private final AtomicInteger openSessions = new AtomicInteger();
+    private final ExecutorService sessions = Util.newVirtualThreadExecutor("scheduler-session");
+
+    public SchedulerServer(int port) {
+        this.port = port;
+    }
+
+    public void run() throws IOException, SQLException {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            sessions.shutdownNow();
+            try {
+                Repositories.shutdown();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            ConnectionManager.shutdown();
+        }, "scheduler-server-shutdown"));
+
+        try (ServerSocket server = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress())) {
+            System.out.println("Scheduler server listening on " + server.getLocalSocketAddress());
+            while (!server.isClosed()) {
+                Socket client = server.accept();
+                sessions.execute(() -> serve(client));
+            }
+        }
+    }
+
+    public int getOpenSessions() {
+        return openSessions.get();
+    }
+
+    private void serve(Socket client) {
+        openSessions.incrementAndGet();
+        try (Socket socket = client;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintStream out = new PrintStream(socket.getOutputStream(), true, StandardCharsets.UTF_8)) {
+            CommandProcessor processor = new CommandProcessor(out);
+            processor.printGreeting();
+            while (true) {
+                out.print("> ");
+                out.flush();
+                String line = in.readLine();
+                if (line == null || !processor.execute(line)) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // the client went away; nothing to clean up beyond the socket
+        } finally {
+            openSessions.decrementAndGet();
+        }
+    }
+}
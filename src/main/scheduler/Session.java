@@ -0,0 +1,68 @@
+package scheduler;
+
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+
+import java.sql.SQLException;
+
+/**
+ * The logged-in user of one console, with the user's database id resolved once at login.
+ *
+ * At most one of patient and caregiver is set. Commands read the id from here instead of
+ * looking it up by username and credentials every time.
+ */
+public class Session {
+    private Patient patient = null;
+    private Caregiver caregiver = null;
+    private int userId = -1;
+
+    public void loginPatient(Patient patient) throws SQLException {
+        this.userId = patient.getPatientIdFromCredentials();
+        this.patient = patient;
+        this.caregiver = null;
+    }
+
+    public void loginCaregiver(Caregiver caregiver) throws SQLException {
+        this.userId = caregiver.getCaregiverIdFromCredentials();
+        this.caregiver = caregiver;
+        this.patient = null;
+    }
+
+    public void logout() {
+        patient = null;
+        caregiver = null;
+        userId = -1;
+    }
+
+    public boolean isLoggedIn() {
+        return patient != null || caregiver != null;
+    }
+
+    public boolean isPatient() {
+        return patient != null;
+    }
+
+    public boolean isCaregiver() {
+        return caregiver != null;
+    }
+
+    public Patient getPatient() {
+        return patient;
+    }
+
+    public Caregiver getCaregiver() {
+        return caregiver;
+    }
+
+    // patientId or caregiverId of the logged-in user, -1 if nobody is logged in
+    public int getUserId() {
+        return userId;
+    }
+
+    public String getUsername() {
+        if (patient != null) {
+            return patient.getUsername();
+        }
+        return caregiver == null ? null : caregiver.getUsername();
+    }
+}
@@ -0,0 +1,41 @@
+package scheduler.assignment;
+
+import scheduler.util.Util;
+
+/**
+ * Creates assignment strategies by name: "first-available" (the default, the lowest ordinal,
+ * which is the first caregiver by username when the index was loaded from the database),
+ * "least-loaded", "round-robin" and "random-of-k", which samples AssignmentChoices (default 2)
+ * free caregivers and takes the least loaded one.
+ */
+public final class AssignmentStrategies {
+
+    public static final String FIRST_AVAILABLE = "first-available";
+    public static final String LEAST_LOADED = "least-loaded";
+    public static final String ROUND_ROBIN = "round-robin";
+    public static final String RANDOM_OF_K = "random-of-k";
+
+    private AssignmentStrategies() {
+    }
+
+    // every engine gets its own instance, so booking counts never mix between engines
+    public static AssignmentStrategy fromEnvironment() {
+        return create(System.getenv("AssignmentStrategy"));
+    }
+
+    public static AssignmentStrategy create(String name) {
+        if (name == null || name.isBlank() || name.equalsIgnoreCase(FIRST_AVAILABLE)) {
+            return new FirstAvailableStrategy();
+        }
+        if (name.equalsIgnoreCase(LEAST_LOADED)) {
+            return new LeastLoadedStrategy();
+        }
+        if (name.equalsIgnoreCase(ROUND_ROBIN)) {
+            return new RoundRobinStrategy();
+        }
+        if (name.equalsIgnoreCase(RANDOM_OF_K)) {
+            return new RandomOfKStrategy(Math.max(1, Util.getEnvInt("AssignmentChoices", 2)));
+        }
+        throw new IllegalArgumentException("Unknown assignment strategy: " + name);
+    }
+}
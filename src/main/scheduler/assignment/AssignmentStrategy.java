@@ -0,0 +1,23 @@
+package scheduler.assignment;
+
+import scheduler.cache.AvailabilityIndex;
+
+/**
+ * Chooses which free caregiver reserve tries to book on a day.
+ *
+ * pick is called again after every failed claim, so it only has to return some caregiver that is
+ * free in the index at the time of the call. Strategies that balance load are told about every
+ * booking and every cancelled booking, by day and caregiver ordinal. A booking is reported as soon
+ * as its slot is claimed, and released again if it then fails, so concurrent picks see it.
+ */
+public interface AssignmentStrategy {
+
+    // a free caregiver ordinal on the day, or -1 if there is none
+    int pick(AvailabilityIndex index, long epochDay);
+
+    default void booked(long epochDay, int ordinal) {
+    }
+
+    default void released(long epochDay, int ordinal) {
+    }
+}
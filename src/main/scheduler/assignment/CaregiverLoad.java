@@ -0,0 +1,54 @@
+package scheduler.assignment;
+
+import java.time.LocalDate;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Number of booked appointments per day and caregiver ordinal, so caregivers are balanced within
+ * each day rather than over their whole history. Reads are lock-free; updates to a day take that
+ * day's lock so that growing its array cannot lose a concurrent update. Days gone by are dropped
+ * whenever a new day is counted.
+ */
+class CaregiverLoad {
+
+    private final ConcurrentHashMap<Long, DayCounts> days = new ConcurrentHashMap<>();
+
+    int get(long epochDay, int ordinal) {
+        DayCounts counts = days.get(epochDay);
+        return counts == null ? 0 : counts.get(ordinal);
+    }
+
+    void add(long epochDay, int ordinal, int delta) {
+        DayCounts counts = days.get(epochDay);
+        if (counts == null) {
+            // new days are rare, so that is when the counts of days gone by are dropped
+            long today = LocalDate.now().toEpochDay();
+            days.keySet().removeIf(day -> day < today);
+            counts = days.computeIfAbsent(epochDay, d -> new DayCounts());
+        }
+        counts.add(ordinal, delta);
+    }
+
+    private static final class DayCounts {
+        private volatile AtomicIntegerArray counts = new AtomicIntegerArray(64);
+
+        int get(int ordinal) {
+            AtomicIntegerArray current = counts;
+            return ordinal < current.length() ? current.get(ordinal) : 0;
+        }
+
+        synchronized void add(int ordinal, int delta) {
+            AtomicIntegerArray current = counts;
+            if (ordinal >= current.length()) {
+                AtomicIntegerArray grown = new AtomicIntegerArray(Math.max(ordinal + 1, current.length() * 2));
+                for (int i = 0; i < current.length(); i++) {
+                    grown.set(i, current.get(i));
+                }
+                current = grown;
+                counts = grown;
+            }
+            current.addAndGet(ordinal, delta);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package scheduler.assignment;
+
+import scheduler.cache.AvailabilityIndex;
+
+// always the lowest free ordinal
+class FirstAvailableStrategy implements AssignmentStrategy {
+
+    @Override
+    public int pick(AvailabilityIndex index, long epochDay) {
+        return index.firstFree(epochDay);
+    }
+}
@@ -0,0 +1,81 @@
+package scheduler.assignment;
+
+import scheduler.cache.AvailabilityIndex;
+
+import java.time.LocalDate;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Picks the free caregiver with the fewest bookings on the day, ties going to the lower ordinal.
+ *
+ * Each day has a min-heap of its free caregivers keyed by (bookings that day, ordinal), built
+ * from the index the first time the day is asked for and rebuilt whenever the index version of
+ * the day changes, which only happens when a caregiver becomes free there. Entries are checked
+ * when they reach the top: claimed caregivers are dropped and caregivers whose count has changed
+ * since the entry was made are pushed back with the current count. A count that went down below
+ * the top, after a cancellation, is only seen when the entry reaches the top or the heap is
+ * rebuilt. Heaps of past days are dropped whenever a new day is added.
+ */
+class LeastLoadedStrategy implements AssignmentStrategy {
+
+    private final CaregiverLoad load = new CaregiverLoad();
+    private final ConcurrentHashMap<Long, DayHeap> days = new ConcurrentHashMap<>();
+
+    @Override
+    public int pick(AvailabilityIndex index, long epochDay) {
+        DayHeap heap = days.get(epochDay);
+        if (heap == null) {
+            // new days are rare, so that is when the heaps of days gone by are dropped
+            long today = LocalDate.now().toEpochDay();
+            days.keySet().removeIf(day -> day < today);
+            heap = days.computeIfAbsent(epochDay, d -> new DayHeap());
+        }
+        synchronized (heap) {
+            int version = index.version(epochDay);
+            if (version != heap.version) {
+                heap.entries.clear();
+                for (int ordinal = index.firstFree(epochDay); ordinal >= 0; ordinal = index.nextFree(epochDay, ordinal + 1)) {
+                    heap.entries.add(entry(load.get(epochDay, ordinal), ordinal));
+                }
+                heap.version = version;
+            }
+            while (!heap.entries.isEmpty()) {
+                long top = heap.entries.peek();
+                int ordinal = (int) top;
+                if (!index.isFree(epochDay, ordinal)) {
+                    heap.entries.poll();
+                    continue;
+                }
+                int current = Math.max(0, load.get(epochDay, ordinal));
+                if (current != (int) (top >>> 32)) {
+                    heap.entries.poll();
+                    heap.entries.add(entry(current, ordinal));
+                    continue;
+                }
+                return ordinal;
+            }
+            return -1;
+        }
+    }
+
+    @Override
+    public void booked(long epochDay, int ordinal) {
+        load.add(epochDay, ordinal, 1);
+    }
+
+    @Override
+    public void released(long epochDay, int ordinal) {
+        load.add(epochDay, ordinal, -1);
+    }
+
+    // bookings in the high half, so entries order by bookings and then by ordinal
+    private static long entry(int bookings, int ordinal) {
+        return ((long) Math.max(0, bookings) << 32) | ordinal;
+    }
+
+    private static final class DayHeap {
+        private final PriorityQueue<Long> entries = new PriorityQueue<>();
+        private int version = -1;
+    }
+}
@@ -0,0 +1,54 @@
+package scheduler.assignment;
+
+import scheduler.cache.AvailabilityIndex;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Samples k free caregivers and takes the one with the fewest bookings on the day. With k = 2 this keeps the
+ * busiest caregiver close to the average without any shared ordering structure, and concurrent
+ * reservations rarely pick the same caregiver.
+ */
+class RandomOfKStrategy implements AssignmentStrategy {
+
+    private final int choices;
+    private final CaregiverLoad load = new CaregiverLoad();
+
+    RandomOfKStrategy(int choices) {
+        this.choices = choices;
+    }
+
+    @Override
+    public int pick(AvailabilityIndex index, long epochDay) {
+        int caregivers = index.caregiverCount();
+        if (caregivers == 0) {
+            return -1;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int best = -1;
+        for (int i = 0; i < choices; i++) {
+            // the first free caregiver at or after a random ordinal
+            int ordinal = index.nextFree(epochDay, random.nextInt(caregivers));
+            if (ordinal < 0) {
+                ordinal = index.firstFree(epochDay);
+                if (ordinal < 0) {
+                    return -1;
+                }
+            }
+            if (best < 0 || load.get(epochDay, ordinal) < load.get(epochDay, best)) {
+                best = ordinal;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public void booked(long epochDay, int ordinal) {
+        load.add(epochDay, ordinal, 1);
+    }
+
+    @Override
+    public void released(long epochDay, int ordinal) {
+        load.add(epochDay, ordinal, -1);
+    }
+}
@@ -0,0 +1,24 @@
+package scheduler.assignment;
+
+import scheduler.cache.AvailabilityIndex;
+
+/**
+ * Walks the caregivers in ordinal order, starting after the last one picked on any day and
+ * wrapping around. Concurrent picks may start from the same place; the losing claim just picks again.
+ */
+class RoundRobinStrategy implements AssignmentStrategy {
+
+    private volatile int cursor = 0;
+
+    @Override
+    public int pick(AvailabilityIndex index, long epochDay) {
+        int ordinal = index.nextFree(epochDay, cursor);
+        if (ordinal < 0) {
+            ordinal = index.firstFree(epochDay);
+        }
+        if (ordinal >= 0) {
+            cursor = ordinal + 1;
+        }
+        return ordinal;
+    }
+}
@@ -0,0 +1,550 @@
+package scheduler.cache;
+
+import java.sql.Date;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * In-process index of caregiver availability: for every date, a bitset over caregiver ordinals.
+ *
+ * Each caregiver gets a small integer ordinal the first time it is seen. For each date the index
+ * keeps two bitsets: which caregivers have an availability row at all, and which of those are still
+ * free. Lookups, "first free caregiver" picks and claims are plain array reads and compare-and-set
+ * operations on the bitset words, so the read and reserve paths do not lock or allocate.
+ *
+ * With time slots (see TimeSlots) each caregiver also has a word per date with one bit per free
+ * slot. The word is the truth; the caregiver's free bit just says the word is not empty, so a
+ * slot is claimed or released with one compare-and-set on the word, and the free bit is brought
+ * in line afterwards. Without slots the word is a single bit and behaves like the free bit.
+ *
+ * Dates are keyed by epoch day in a small open-addressed table. New dates and new caregivers are
+ * rare and take a lock; everything else is lock-free. Past days are dropped by pruneBefore, which
+ * swaps in a copy of the table without them.
+ */
+public class AvailabilityIndex {
+
+    // 64 words of 64 bits: one block covers 4096 caregivers
+    private static final int BLOCK_WORDS = 64;
+    private static final int BLOCK_BITS = BLOCK_WORDS * 64;
+    // slot words are one per caregiver, in blocks of 256
+    private static final int SLOT_BLOCK = 256;
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    // the slots of a day on which nothing is booked yet
+    private final long fullDay;
+
+    private final ConcurrentHashMap<String, Integer> ordinals = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[64];
+    private int caregiverCount = 0;
+
+    private volatile DayTable table = new DayTable(64);
+
+    // one slot per day
+    public AvailabilityIndex() {
+        this(1L);
+    }
+
+    public AvailabilityIndex(long fullDay) {
+        this.fullDay = fullDay;
+    }
+
+    public static long epochDay(Date date) {
+        return date.toLocalDate().toEpochDay();
+    }
+
+    // caregivers
+
+    // returns the caregiver's ordinal, assigning the next free one if it has none yet
+    public int register(String username) {
+        Integer ordinal = ordinals.get(username);
+        if (ordinal != null) {
+            return ordinal;
+        }
+        synchronized (this) {
+            ordinal = ordinals.get(username);
+            if (ordinal != null) {
+                return ordinal;
+            }
+            int next = caregiverCount++;
+            String[] current = names;
+            if (next == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[next] = username;
+            names = current;
+            ordinals.put(username, next);
+            return next;
+        }
+    }
+
+    // -1 if the caregiver has never been registered
+    public int ordinal(String username) {
+        Integer ordinal = ordinals.get(username);
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    public String username(int ordinal) {
+        return names[ordinal];
+    }
+
+    public int caregiverCount() {
+        return ordinals.size();
+    }
+
+    // days
+
+    // records a new availability row with every slot free; returns false if the caregiver
+    // already had one on that day
+    public boolean publish(long epochDay, int ordinal) {
+        return publish(epochDay, ordinal, fullDay);
+    }
+
+    // records a row loaded from storage, where some slots may already be booked
+    public boolean publish(long epochDay, int ordinal, long freeSlots) {
+        Day day = dayFor(epochDay);
+        if (!day.rows.set(ordinal)) {
+            return false;
+        }
+        long slots = freeSlots & fullDay;
+        day.slots.set(ordinal, slots);
+        if (slots != 0) {
+            day.free.set(ordinal);
+            day.changes.incrementAndGet();
+        }
+        return true;
+    }
+
+    // swaps a caregiver's slots on the day for the ones storage holds, if they are still the
+    // expected ones; false (and nothing changed) if the row is missing or its slots changed
+    public boolean compareAndRefresh(long epochDay, int ordinal, long expected, long freeSlots) {
+        Day day = table.get(epochDay);
+        if (day == null || !day.rows.get(ordinal)) {
+            return false;
+        }
+        long slots = freeSlots & fullDay;
+        if (!day.slots.compareAndSet(ordinal, expected, slots)) {
+            return false;
+        }
+        if (slots == 0) {
+            settle(day, ordinal);
+        } else if (day.free.set(ordinal)) {
+            day.changes.incrementAndGet();
+        }
+        return true;
+    }
+
+    public boolean hasRow(long epochDay, int ordinal) {
+        Day day = table.get(epochDay);
+        return day != null && day.rows.get(ordinal);
+    }
+
+    public boolean isFree(long epochDay, int ordinal) {
+        Day day = table.get(epochDay);
+        return day != null && day.free.get(ordinal);
+    }
+
+    // bit i set while slot i is free
+    public long freeSlots(long epochDay, int ordinal) {
+        Day day = table.get(epochDay);
+        return day == null ? 0 : day.slots.get(ordinal);
+    }
+
+    // claims the slot, or with TimeSlots.ANY the earliest free one; returns the slot claimed, or -1.
+    // Only one of several concurrent callers gets any one slot.
+    public int claim(long epochDay, int ordinal, int slot) {
+        Day day = table.get(epochDay);
+        if (day == null) {
+            return -1;
+        }
+        long current;
+        int claimed;
+        do {
+            current = day.slots.get(ordinal);
+            long candidates = slot < 0 ? current : current & (1L << slot);
+            if (candidates == 0) {
+                if (current == 0) {
+                    settle(day, ordinal);
+                }
+                return -1;
+            }
+            claimed = Long.numberOfTrailingZeros(candidates);
+        } while (!day.slots.compareAndSet(ordinal, current, current & ~(1L << claimed)));
+        if ((current & ~(1L << claimed)) == 0) {
+            settle(day, ordinal);
+        }
+        return claimed;
+    }
+
+    // frees a slot of a caregiver that has a row on the day
+    public void release(long epochDay, int ordinal, int slot) {
+        Day day = table.get(epochDay);
+        if (day == null || !day.rows.get(ordinal)) {
+            return;
+        }
+        long bit = 1L << slot;
+        long current;
+        do {
+            current = day.slots.get(ordinal);
+            if ((current & bit) != 0) {
+                return;
+            }
+        } while (!day.slots.compareAndSet(ordinal, current, current | bit));
+        if (day.free.set(ordinal)) {
+            day.changes.incrementAndGet();
+        }
+    }
+
+    // clears the free bit of a caregiver whose slots ran out, unless a release got in meanwhile
+    private static void settle(Day day, int ordinal) {
+        day.free.clear(ordinal);
+        if (day.slots.get(ordinal) != 0) {
+            day.free.set(ordinal);
+        }
+    }
+
+    // lowest free ordinal at or after fromOrdinal, or -1
+    public int nextFree(long epochDay, int fromOrdinal) {
+        Day day = table.get(epochDay);
+        return day == null ? -1 : day.free.nextSetBit(fromOrdinal);
+    }
+
+    public int firstFree(long epochDay) {
+        return nextFree(epochDay, 0);
+    }
+
+    // lowest ordinal at or after fromOrdinal with the slot free, or -1
+    public int nextFreeAt(long epochDay, int fromOrdinal, int slot) {
+        Day day = table.get(epochDay);
+        if (day == null) {
+            return -1;
+        }
+        long bit = 1L << slot;
+        for (int ordinal = day.free.nextSetBit(fromOrdinal); ordinal >= 0; ordinal = day.free.nextSetBit(ordinal + 1)) {
+            if ((day.slots.get(ordinal) & bit) != 0) {
+                return ordinal;
+            }
+        }
+        return -1;
+    }
+
+    // bumped whenever a caregiver becomes free on the day, by a new row or a release; claims do not
+    // change it, so a structure built from the free caregivers stays valid while it is unchanged
+    public int version(long epochDay) {
+        Day day = table.get(epochDay);
+        return day == null ? 0 : day.changes.get();
+    }
+
+    public int countFree(long epochDay) {
+        Day day = table.get(epochDay);
+        return day == null ? 0 : day.free.cardinality();
+    }
+
+    // free slots over all caregivers on the day
+    public int countFreeSlots(long epochDay) {
+        Day day = table.get(epochDay);
+        if (day == null) {
+            return 0;
+        }
+        int count = 0;
+        for (int ordinal = day.free.nextSetBit(0); ordinal >= 0; ordinal = day.free.nextSetBit(ordinal + 1)) {
+            count += Long.bitCount(day.slots.get(ordinal));
+        }
+        return count;
+    }
+
+    // drops every day before the given one, so an index kept for a long time does not grow
+    // without bound; returns the number of days dropped
+    public int pruneBefore(long epochDay) {
+        synchronized (this) {
+            DayTable current = table;
+            DayTable kept = current.from(epochDay);
+            int dropped = current.size - kept.size;
+            if (dropped > 0) {
+                table = kept;
+            }
+            return dropped;
+        }
+    }
+
+    private Day dayFor(long epochDay) {
+        Day day = table.get(epochDay);
+        if (day != null) {
+            return day;
+        }
+        synchronized (this) {
+            DayTable current = table;
+            day = current.get(epochDay);
+            if (day != null) {
+                return day;
+            }
+            if ((current.size + 1) * 2 > current.capacity()) {
+                current = current.resized();
+                table = current;
+            }
+            day = new Day();
+            current.put(epochDay, day);
+            return day;
+        }
+    }
+
+    private static final class Day {
+        private final Bits rows = new Bits();
+        private final Bits free = new Bits();
+        private final SlotWords slots = new SlotWords();
+        private final AtomicInteger changes = new AtomicInteger();
+    }
+
+    /**
+     * One word per caregiver ordinal, in blocks that are never moved, like Bits.
+     */
+    private static final class SlotWords {
+        private volatile AtomicReferenceArray<AtomicLongArray> blocks = new AtomicReferenceArray<>(1);
+
+        private long get(int ordinal) {
+            AtomicReferenceArray<AtomicLongArray> dir = blocks;
+            int b = ordinal / SLOT_BLOCK;
+            AtomicLongArray block = b < dir.length() ? dir.get(b) : null;
+            return block == null ? 0 : block.get(ordinal % SLOT_BLOCK);
+        }
+
+        private void set(int ordinal, long value) {
+            blockForWrite(ordinal).set(ordinal % SLOT_BLOCK, value);
+        }
+
+        private boolean compareAndSet(int ordinal, long expected, long value) {
+            return blockForWrite(ordinal).compareAndSet(ordinal % SLOT_BLOCK, expected, value);
+        }
+
+        private AtomicLongArray blockForWrite(int ordinal) {
+            int b = ordinal / SLOT_BLOCK;
+            AtomicReferenceArray<AtomicLongArray> dir = blocks;
+            AtomicLongArray block = b < dir.length() ? dir.get(b) : null;
+            if (block != null) {
+                return block;
+            }
+            synchronized (this) {
+                dir = blocks;
+                if (b >= dir.length()) {
+                    AtomicReferenceArray<AtomicLongArray> grown = new AtomicReferenceArray<>(Math.max(b + 1, dir.length() * 2));
+                    for (int i = 0; i < dir.length(); i++) {
+                        grown.set(i, dir.get(i));
+                    }
+                    dir = grown;
+                    blocks = grown;
+                }
+                block = dir.get(b);
+                if (block == null) {
+                    block = new AtomicLongArray(SLOT_BLOCK);
+                    dir.set(b, block);
+                }
+                return block;
+            }
+        }
+    }
+
+    /**
+     * Growable concurrent bitset. Words live in fixed-size blocks that are never moved, so
+     * growing the block directory cannot lose a concurrent compare-and-set on a word.
+     */
+    private static final class Bits {
+        private volatile AtomicReferenceArray<AtomicLongArray> blocks = new AtomicReferenceArray<>(1);
+
+        private boolean get(int bit) {
+            AtomicLongArray block = block(bit);
+            return block != null && (block.get(wordInBlock(bit)) & mask(bit)) != 0;
+        }
+
+        // returns true if the bit was clear before
+        private boolean set(int bit) {
+            AtomicLongArray block = blockForWrite(bit);
+            int word = wordInBlock(bit);
+            long mask = mask(bit);
+            long current;
+            do {
+                current = block.get(word);
+                if ((current & mask) != 0) {
+                    return false;
+                }
+            } while (!block.compareAndSet(word, current, current | mask));
+            return true;
+        }
+
+        // returns true if the bit was set before
+        private boolean clear(int bit) {
+            AtomicLongArray block = block(bit);
+            if (block == null) {
+                return false;
+            }
+            int word = wordInBlock(bit);
+            long mask = mask(bit);
+            long current;
+            do {
+                current = block.get(word);
+                if ((current & mask) == 0) {
+                    return false;
+                }
+            } while (!block.compareAndSet(word, current, current & ~mask));
+            return true;
+        }
+
+        private int nextSetBit(int from) {
+            if (from < 0) {
+                from = 0;
+            }
+            AtomicReferenceArray<AtomicLongArray> dir = blocks;
+            int firstBlock = from / BLOCK_BITS;
+            for (int b = firstBlock; b < dir.length(); b++) {
+                AtomicLongArray block = dir.get(b);
+                if (block == null) {
+                    continue;
+                }
+                int w = b == firstBlock ? wordInBlock(from) : 0;
+                long word = block.get(w);
+                if (b == firstBlock) {
+                    // ignore the bits below the starting position
+                    word &= -1L << (from & 63);
+                }
+                while (true) {
+                    if (word != 0) {
+                        return b * BLOCK_BITS + w * 64 + Long.numberOfTrailingZeros(word);
+                    }
+                    if (++w == BLOCK_WORDS) {
+                        break;
+                    }
+                    word = block.get(w);
+                }
+            }
+            return -1;
+        }
+
+        private int cardinality() {
+            AtomicReferenceArray<AtomicLongArray> dir = blocks;
+            int count = 0;
+            for (int b = 0; b < dir.length(); b++) {
+                AtomicLongArray block = dir.get(b);
+                if (block != null) {
+                    for (int w = 0; w < BLOCK_WORDS; w++) {
+                        count += Long.bitCount(block.get(w));
+                    }
+                }
+            }
+            return count;
+        }
+
+        private AtomicLongArray block(int bit) {
+            AtomicReferenceArray<AtomicLongArray> dir = blocks;
+            int b = bit / BLOCK_BITS;
+            return b < dir.length() ? dir.get(b) : null;
+        }
+
+        private AtomicLongArray blockForWrite(int bit) {
+            AtomicLongArray block = block(bit);
+            if (block != null) {
+                return block;
+            }
+            synchronized (this) {
+                int b = bit / BLOCK_BITS;
+                AtomicReferenceArray<AtomicLongArray> dir = blocks;
+                if (b >= dir.length()) {
+                    AtomicReferenceArray<AtomicLongArray> grown = new AtomicReferenceArray<>(Math.max(b + 1, dir.length() * 2));
+                    for (int i = 0; i < dir.length(); i++) {
+                        grown.set(i, dir.get(i));
+                    }
+                    dir = grown;
+                    blocks = grown;
+                }
+                block = dir.get(b);
+                if (block == null) {
+                    block = new AtomicLongArray(BLOCK_WORDS);
+                    dir.set(b, block);
+                }
+                return block;
+            }
+        }
+
+        private static int wordInBlock(int bit) {
+            return (bit % BLOCK_BITS) >>> 6;
+        }
+
+        private static long mask(int bit) {
+            return 1L << (bit & 63);
+        }
+    }
+
+    /**
+     * Open-addressed epoch day -> Day table. Writers hold the index lock; readers see a slot's
+     * value before its key because both arrays are written with volatile semantics in that order.
+     */
+    private static final class DayTable {
+        private final AtomicLongArray keys;
+        private final AtomicReferenceArray<Day> values;
+        private int size = 0;
+
+        private DayTable(int capacity) {
+            keys = new AtomicLongArray(capacity);
+            values = new AtomicReferenceArray<>(capacity);
+            for (int i = 0; i < capacity; i++) {
+                keys.set(i, EMPTY);
+            }
+        }
+
+        private int capacity() {
+            return keys.length();
+        }
+
+        private Day get(long key) {
+            int mask = keys.length() - 1;
+            for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+                long k = keys.get(i);
+                if (k == key) {
+                    return values.get(i);
+                }
+                if (k == EMPTY) {
+                    return null;
+                }
+            }
+        }
+
+        private void put(long key, Day day) {
+            int mask = keys.length() - 1;
+            int i = slot(key, mask);
+            while (keys.get(i) != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            values.set(i, day);
+            keys.set(i, key);
+            size++;
+        }
+
+        private DayTable resized() {
+            DayTable bigger = new DayTable(keys.length() * 2);
+            for (int i = 0; i < keys.length(); i++) {
+                long k = keys.get(i);
+                if (k != EMPTY) {
+                    bigger.put(k, values.get(i));
+                }
+            }
+            return bigger;
+        }
+
+        // a copy holding only the days from the given one on; readers of this table are unaffected
+        private DayTable from(long firstDay) {
+            DayTable kept = new DayTable(keys.length());
+            for (int i = 0; i < keys.length(); i++) {
+                long k = keys.get(i);
+                if (k != EMPTY && k >= firstDay) {
+                    kept.put(k, values.get(i));
+                }
+            }
+            return kept;
+        }
+
+        private static int slot(long key, int mask) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package scheduler.cache;
+
+import scheduler.util.Util;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared in-memory dose counts, one atomic counter per vaccine.
+ *
+ * Reads are served from memory and dose changes are compare-and-set updates, so concurrent
+ * add_doses and reserve calls cannot lose each other's updates. How changes reach the database
+ * depends on the durability mode:
+ *
+ *   WRITE_THROUGH  the caller writes every change to the database itself (inside its own
+ *                  transaction) and the inventory only mirrors it;
+ *   WRITE_BEHIND   changes are applied in memory and queued as per-vaccine deltas, which a
+ *                  background flusher coalesces into one batched write every flush interval,
+ *                  or sooner once enough changes are pending.
+ *
+ * Write-behind trades a window of at most one flush interval of changes on a crash for one
+ * round trip per batch instead of one per command.
+ *
+ * The inventory is also a read-through cache of the vaccine catalog. In write-through mode the
+ * counts are re-read from the database once they are older than the catalog TTL, or as soon
+ * as invalidate() is called, so changes made by other processes show up. In write-behind mode
+ * this process owns the counts, so the catalog is only loaded once.
+ */
+public class VaccineInventory {
+
+    public enum Durability {
+        WRITE_THROUGH,
+        WRITE_BEHIND
+    }
+
+    // receives coalesced dose deltas (vaccine name -> change) and persists them in one batch
+    public interface DoseWriter {
+        void write(Map<String, Integer> deltas) throws SQLException;
+    }
+
+    // reads the catalog from the database and hands every row to refresh()
+    public interface CatalogLoader {
+        void load() throws SQLException;
+    }
+
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Durability durability;
+    private final DoseWriter writer;
+    private final int flushThreshold;
+    private final AtomicInteger pendingChanges = new AtomicInteger();
+    private final ScheduledExecutorService flusher;
+    private final long catalogTtlNanos;
+    // System.nanoTime() of the last catalog load; 0 means never loaded or invalidated
+    private volatile long loadedAt = 0;
+
+    public VaccineInventory(Durability durability, DoseWriter writer, long flushIntervalMillis, int flushThreshold,
+                            long catalogTtlMillis) {
+        this.durability = durability;
+        this.writer = writer;
+        this.flushThreshold = flushThreshold;
+        this.catalogTtlNanos = TimeUnit.MILLISECONDS.toNanos(catalogTtlMillis);
+        if (durability == Durability.WRITE_BEHIND) {
+            this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "inventory-flusher");
+                t.setDaemon(true);
+                return t;
+            });
+            this.flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+            // last chance to persist queued changes on a normal JVM exit
+            Runtime.getRuntime().addShutdownHook(new Thread(this::flushQuietly, "inventory-final-flush"));
+        } else {
+            this.flusher = null;
+        }
+    }
+
+    public static VaccineInventory fromEnvironment(DoseWriter writer) {
+        String mode = System.getenv("InventoryDurability");
+        Durability durability = mode != null && mode.equalsIgnoreCase("write-behind")
+                ? Durability.WRITE_BEHIND : Durability.WRITE_THROUGH;
+        return new VaccineInventory(durability, writer,
+                Util.getEnvInt("InventoryFlushMillis", 200),
+                Util.getEnvInt("InventoryFlushThreshold", 500),
+                Util.getEnvInt("CatalogTtlMillis", 30000));
+    }
+
+    public boolean isWriteBehind() {
+        return durability == Durability.WRITE_BEHIND;
+    }
+
+    // true if the catalog has never been loaded, was invalidated, or (write-through only) is past its TTL
+    public boolean needsReload() {
+        long at = loadedAt;
+        return at == 0 || (!isWriteBehind() && System.nanoTime() - at >= catalogTtlNanos);
+    }
+
+    // runs the loader if the catalog still needs it once the lock is held; returns true if it ran
+    public synchronized boolean reload(CatalogLoader loader) throws SQLException {
+        if (!needsReload()) {
+            return false;
+        }
+        loader.load();
+        loadedAt = Math.max(1, System.nanoTime());
+        return true;
+    }
+
+    // the next read goes to the database
+    public void invalidate() {
+        loadedAt = 0;
+    }
+
+    /**
+     * Takes a vaccine row read from the database. New vaccines are added; in write-through mode
+     * known ones take the stored count, which the database's conditional updates keep exact.
+     */
+    public void refresh(String vaccineName, int vaccineId, int availableDoses) {
+        Counter counter = counters.putIfAbsent(vaccineName, new Counter(vaccineId, availableDoses));
+        if (counter != null && !isWriteBehind()) {
+            counter.available.set(availableDoses);
+        }
+    }
+
+    // records the stored state of a vaccine; keeps the existing counter if one is already loaded
+    public void load(String vaccineName, int vaccineId, int availableDoses) {
+        counters.putIfAbsent(vaccineName, new Counter(vaccineId, availableDoses));
+    }
+
+    public boolean contains(String vaccineName) {
+        return counters.containsKey(vaccineName);
+    }
+
+    // -1 if the vaccine is unknown
+    public int getAvailableDoses(String vaccineName) {
+        Counter counter = counters.get(vaccineName);
+        return counter == null ? -1 : counter.available.get();
+    }
+
+    // -1 if the vaccine is unknown
+    public int getVaccineId(String vaccineName) {
+        Counter counter = counters.get(vaccineName);
+        return counter == null ? -1 : counter.vaccineId;
+    }
+
+    // current counts, sorted by vaccine name
+    public Map<String, Integer> snapshot() {
+        Map<String, Integer> result = new TreeMap<>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().available.get());
+        }
+        return result;
+    }
+
+    // takes one dose in memory; the caller persists it (write-through) or calls queue (write-behind)
+    public boolean tryTake(String vaccineName) {
+        Counter counter = counters.get(vaccineName);
+        return counter != null && counter.tryAdd(-1);
+    }
+
+    // undoes a tryTake whose reservation did not go through
+    public void giveBack(String vaccineName) {
+        Counter counter = counters.get(vaccineName);
+        if (counter != null) {
+            counter.available.incrementAndGet();
+        }
+    }
+
+    /**
+     * Applies a dose change in memory and, in write-behind mode, queues it for the next flush.
+     * Returns false (and changes nothing) if the vaccine is unknown or the change would make the
+     * count negative.
+     */
+    public boolean add(String vaccineName, int delta) {
+        Counter counter = counters.get(vaccineName);
+        if (counter == null || !counter.tryAdd(delta)) {
+            return false;
+        }
+        if (isWriteBehind()) {
+            queue(counter, delta);
+        }
+        return true;
+    }
+
+    // mirrors a change that is already in the database, without queueing it
+    public void mirror(String vaccineName, int delta) {
+        Counter counter = counters.get(vaccineName);
+        if (counter != null) {
+            counter.available.addAndGet(delta);
+        }
+    }
+
+    // like mirror, but refuses (and changes nothing) if the count would go negative
+    public boolean tryMirror(String vaccineName, int delta) {
+        Counter counter = counters.get(vaccineName);
+        return counter != null && counter.tryAdd(delta);
+    }
+
+    // queues a change that has already been applied in memory
+    public void queue(String vaccineName, int delta) {
+        Counter counter = counters.get(vaccineName);
+        if (counter != null) {
+            queue(counter, delta);
+        }
+    }
+
+    public void flush() throws SQLException {
+        Map<String, Integer> deltas = new HashMap<>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            int delta = entry.getValue().pending.getAndSet(0);
+            if (delta != 0) {
+                deltas.put(entry.getKey(), delta);
+            }
+        }
+        if (deltas.isEmpty()) {
+            return;
+        }
+        pendingChanges.set(0);
+        try {
+            writer.write(deltas);
+        } catch (SQLException | RuntimeException e) {
+            // put the deltas back so the next flush retries them
+            for (Map.Entry<String, Integer> entry : deltas.entrySet()) {
+                counters.get(entry.getKey()).pending.addAndGet(entry.getValue());
+            }
+            throw e;
+        }
+    }
+
+    public void close() throws SQLException {
+        if (flusher != null) {
+            flusher.shutdown();
+            flush();
+        }
+    }
+
+    private void queue(Counter counter, int delta) {
+        counter.pending.addAndGet(delta);
+        if (pendingChanges.incrementAndGet() == flushThreshold && flusher != null && !flusher.isShutdown()) {
+            flusher.execute(this::flushQuietly);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (SQLException e) {
+            System.out.println("Error occurred when saving dose changes, will retry");
+            e.printStackTrace();
+        }
+    }
+
+    private static final class Counter {
+        private final int vaccineId;
+        private final AtomicInteger available;
+        // change applied in memory but not yet written to the database
+        private final AtomicInteger pending = new AtomicInteger();
+
+        private Counter(int vaccineId, int availableDoses) {
+            this.vaccineId = vaccineId;
+            this.available = new AtomicInteger(availableDoses);
+        }
+
+        private boolean tryAdd(int delta) {
+            int current;
+            do {
+                current = available.get();
+                if (current + delta < 0) {
+                    return false;
+                }
+            } while (!available.compareAndSet(current, current + delta));
+            return true;
+        }
+    }
+}
@@ -1,16 +1,31 @@
 package scheduler.db;
 
+import scheduler.util.Util;
+
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
 public class ConnectionManager {
 
-    private final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
-    private final String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
+    private static final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
+    private static final String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
             ".database.windows.net:1433;database=" + System.getenv("DBName");
-    private final String userName = System.getenv("UserID");
-    private final String userPass = System.getenv("Password");
+    private static final String userName = System.getenv("UserID");
+    private static final String userPass = System.getenv("Password");
+
+    // pool settings, overridable through the environment like the connection settings above
+    private static final int poolMaxSize = Util.getEnvInt("PoolMaxSize", 10);
+    private static final int poolMinIdle = Util.getEnvInt("PoolMinIdle", 1);
+    private static final int poolBorrowTimeoutMillis = Util.getEnvInt("PoolBorrowTimeoutMillis", 5000);
+    private static final int poolIdleTimeoutMillis = Util.getEnvInt("PoolIdleTimeoutMillis", 300000);
+    private static final int poolValidationIntervalMillis = Util.getEnvInt("PoolValidationIntervalMillis", 30000);
+    // prepared statements kept per pooled connection; 0 turns the cache off
+    private static final int statementCacheSize = Util.getEnvInt("StatementCacheSize", 32);
+
+    private static volatile ConnectionPool pool = null;
+
+    // connection held by a thread for a whole run of commands, see pin()
+    private static final ThreadLocal<Connection> pinned = new ThreadLocal<>();
 
     private Connection con = null;
 
@@ -22,17 +37,87 @@ public class ConnectionManager {
         }
     }
 
-    public Connection createConnection() {
-        try {
-            con = DriverManager.getConnection(connectionUrl, userName, userPass);
-        } catch (SQLException e) {
-            e.printStackTrace();
+    // the pool is shared by every ConnectionManager and created on first use
+    public static ConnectionPool getPool() {
+        ConnectionPool p = pool;
+        if (p == null) {
+            synchronized (ConnectionManager.class) {
+                p = pool;
+                if (p == null) {
+                    p = new ConnectionPool(connectionUrl, userName, userPass, poolMaxSize, poolMinIdle,
+                            poolBorrowTimeoutMillis, poolIdleTimeoutMillis, poolValidationIntervalMillis,
+                            statementCacheSize);
+                    pool = p;
+                }
+            }
+        }
+        return p;
+    }
+
+    // statistics of the shared pool, or null while nothing has used it
+    public static ConnectionPool.PoolStats poolStats() {
+        ConnectionPool p = pool;
+        return p == null ? null : p.getStats();
+    }
+
+    public static void shutdown() {
+        synchronized (ConnectionManager.class) {
+            if (pool != null) {
+                pool.close();
+                pool = null;
+            }
+        }
+    }
+
+    /**
+     * Keeps one pooled connection bound to the calling thread until unpin(). While pinned,
+     * every ConnectionManager on this thread hands out that connection instead of borrowing,
+     * which saves the pool round trip per statement for long single-threaded runs.
+     */
+    public static void pin() throws SQLException {
+        if (pinned.get() == null) {
+            pinned.set(SqlTracer.wrap(getPool().borrow()));
         }
+    }
+
+    public static void unpin() {
+        Connection connection = pinned.get();
+        if (connection != null) {
+            pinned.remove();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // a pooled connection; failing to get one, a borrow timeout included, is thrown to the caller
+    public Connection createConnection() throws SQLException {
+        Connection connection = pinned.get();
+        if (connection != null) {
+            con = connection;
+            return con;
+        }
+        // a tracing proxy when SqlTrace is on, the pooled connection itself otherwise
+        con = SqlTracer.wrap(getPool().borrow());
         return con;
     }
 
+    // returns the connection to the pool; the physical connection stays open for the next caller
     public void closeConnection() {
+        if (this.con == null) {
+            return;
+        }
         try {
+            if (this.con == pinned.get()) {
+                // keep the pinned connection, but leave no transaction open for the next caller
+                if (!this.con.getAutoCommit()) {
+                    this.con.rollback();
+                    this.con.setAutoCommit(true);
+                }
+                return;
+            }
             this.con.close();
         } catch (SQLException e) {
             e.printStackTrace();
@@ -0,0 +1,386 @@
+package scheduler.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of warm JDBC connections.
+ *
+ * At most maxSize connections are ever open. Callers that cannot get one within
+ * the borrow timeout get an SQLTimeoutException instead of blocking forever.
+ * Idle connections are kept most-recently-used first, re-validated when they have
+ * been idle longer than the validation interval, and evicted in the background
+ * once they have been idle longer than the idle timeout. The same background task
+ * opens connections while fewer than minIdle are idle, so a quiet pool stays warm.
+ *
+ * Connections handed out are proxies: calling close() returns the underlying
+ * connection to the pool instead of closing it. Each pooled connection keeps its own
+ * StatementCache, so the fixed set of queries the scheduler runs is prepared once per
+ * connection rather than once per call.
+ */
+public class ConnectionPool {
+
+    private final String url;
+    private final String userName;
+    private final String userPass;
+    private final int maxSize;
+    private final int minIdle;
+    private final long borrowTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long validationIntervalMillis;
+    private final int statementCacheSize;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledEntry> idle = new LinkedBlockingDeque<>();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed = false;
+
+    // statistics
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong destroyed = new AtomicLong();
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+
+    public ConnectionPool(String url, String userName, String userPass, int maxSize, int minIdle,
+                          long borrowTimeoutMillis, long idleTimeoutMillis, long validationIntervalMillis,
+                          int statementCacheSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive!");
+        }
+        this.url = url;
+        this.userName = userName;
+        this.userPass = userPass;
+        this.maxSize = maxSize;
+        this.minIdle = Math.min(minIdle, maxSize);
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validationIntervalMillis = validationIntervalMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, idleTimeoutMillis / 2);
+        this.evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLTimeoutException("Timed out after " + borrowTimeoutMillis
+                        + "ms waiting for a connection (pool size " + maxSize + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+        totalWaitNanos.addAndGet(System.nanoTime() - start);
+
+        try {
+            PooledEntry entry;
+            while ((entry = idle.pollFirst()) != null) {
+                if (isUsable(entry)) {
+                    return lease(entry);
+                }
+                validationFailures.incrementAndGet();
+                destroy(entry);
+            }
+            return lease(open());
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public PoolStats getStats() {
+        int idleCount = idle.size();
+        int active = maxSize - permits.availablePermits();
+        long borrows = borrowed.get();
+        return new PoolStats(maxSize, active, idleCount, permits.getQueueLength(), created.get(),
+                destroyed.get(), borrows, timeouts.get(), validationFailures.get(), evicted.get(),
+                borrows == 0 ? 0 : totalWaitNanos.get() / borrows / 1000, statementHits.get(), statementMisses.get());
+    }
+
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        PooledEntry entry;
+        while ((entry = idle.pollFirst()) != null) {
+            destroy(entry);
+        }
+    }
+
+    private PooledEntry open() throws SQLException {
+        Connection physical = DriverManager.getConnection(url, userName, userPass);
+        created.incrementAndGet();
+        return new PooledEntry(physical, new StatementCache(physical, statementCacheSize, statementHits, statementMisses));
+    }
+
+    private boolean isUsable(PooledEntry entry) {
+        try {
+            if (entry.physical.isClosed()) {
+                return false;
+            }
+            long idleFor = System.currentTimeMillis() - entry.lastUsed;
+            // recently used connections are trusted, older ones get a round trip to the server
+            return idleFor < validationIntervalMillis || entry.physical.isValid(2);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private Connection lease(PooledEntry entry) {
+        borrowed.incrementAndGet();
+        return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new LeasedConnection(entry));
+    }
+
+    private void giveBack(PooledEntry entry) {
+        try {
+            if (closed || entry.physical.isClosed()) {
+                destroy(entry);
+                return;
+            }
+            // leave the connection the way the next borrower expects to find it
+            if (!entry.physical.getAutoCommit()) {
+                entry.physical.rollback();
+                entry.physical.setAutoCommit(true);
+            }
+            entry.physical.clearWarnings();
+            entry.lastUsed = System.currentTimeMillis();
+            idle.offerFirst(entry);
+        } catch (SQLException e) {
+            destroy(entry);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void destroy(PooledEntry entry) {
+        destroyed.incrementAndGet();
+        entry.statements.closeAll();
+        try {
+            entry.physical.close();
+        } catch (SQLException e) {
+            // the connection is being discarded anyway
+        }
+    }
+
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        // the deque is most-recently-used first, so the stalest connections sit at the tail
+        Iterator<PooledEntry> it = idle.descendingIterator();
+        while (it.hasNext() && idle.size() > minIdle) {
+            PooledEntry entry = it.next();
+            if (now - entry.lastUsed >= idleTimeoutMillis && idle.removeLastOccurrence(entry)) {
+                evicted.incrementAndGet();
+                destroy(entry);
+            }
+        }
+        // top the idle connections back up to minIdle, without going over maxSize
+        while (!closed && idle.size() < minIdle && permits.tryAcquire()) {
+            try {
+                // idle connections hold no permit, so this keeps leased plus idle within maxSize
+                if (idle.size() > permits.availablePermits()) {
+                    return;
+                }
+                idle.offerLast(open());
+            } catch (SQLException e) {
+                // the server is unreachable; borrowers will see the error, try again next run
+                return;
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    private static final class PooledEntry {
+        private final Connection physical;
+        private final StatementCache statements;
+        private volatile long lastUsed;
+
+        private PooledEntry(Connection physical, StatementCache statements) {
+            this.physical = physical;
+            this.statements = statements;
+            this.lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    private final class LeasedConnection implements InvocationHandler {
+        private final PooledEntry entry;
+        private boolean released = false;
+
+        private LeasedConnection(PooledEntry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                if (!released) {
+                    released = true;
+                    giveBack(entry);
+                }
+                return null;
+            }
+            if (name.equals("isClosed")) {
+                return released || entry.physical.isClosed();
+            }
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            }
+            if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            if (name.equals("toString")) {
+                return "Pooled" + entry.physical;
+            }
+            if (released) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            if (name.equals("prepareStatement") && args.length == 1) {
+                return entry.statements.prepare((String) args[0], -1);
+            }
+            if (name.equals("prepareStatement") && args.length == 2 && method.getParameterTypes()[1] == int.class) {
+                return entry.statements.prepare((String) args[0], (Integer) args[1]);
+            }
+            try {
+                return method.invoke(entry.physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    public static final class PoolStats {
+        private final int maxSize;
+        private final int active;
+        private final int idle;
+        private final int waiting;
+        private final long created;
+        private final long destroyed;
+        private final long borrowed;
+        private final long timeouts;
+        private final long validationFailures;
+        private final long evicted;
+        private final long averageWaitMicros;
+        private final long statementHits;
+        private final long statementMisses;
+
+        private PoolStats(int maxSize, int active, int idle, int waiting, long created, long destroyed,
+                          long borrowed, long timeouts, long validationFailures, long evicted,
+                          long averageWaitMicros, long statementHits, long statementMisses) {
+            this.maxSize = maxSize;
+            this.active = active;
+            this.idle = idle;
+            this.waiting = waiting;
+            this.created = created;
+            this.destroyed = destroyed;
+            this.borrowed = borrowed;
+            this.timeouts = timeouts;
+            this.validationFailures = validationFailures;
+            this.evicted = evicted;
+            this.averageWaitMicros = averageWaitMicros;
+            this.statementHits = statementHits;
+            this.statementMisses = statementMisses;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public int getActive() {
+            return active;
+        }
+
+        public int getIdle() {
+            return idle;
+        }
+
+        public int getWaiting() {
+            return waiting;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+
+        public long getDestroyed() {
+            return destroyed;
+        }
+
+        public long getBorrowed() {
+            return borrowed;
+        }
+
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        public long getValidationFailures() {
+            return validationFailures;
+        }
+
+        public long getEvicted() {
+            return evicted;
+        }
+
+        public long getAverageWaitMicros() {
+            return averageWaitMicros;
+        }
+
+        public long getStatementHits() {
+            return statementHits;
+        }
+
+        public long getStatementMisses() {
+            return statementMisses;
+        }
+
+        @Override
+        public String toString() {
+            return "PoolStats{" +
+                    "maxSize=" + maxSize +
+                    ", active=" + active +
+                    ", idle=" + idle +
+                    ", waiting=" + waiting +
+                    ", created=" + created +
+                    ", destroyed=" + destroyed +
+                    ", borrowed=" + borrowed +
+                    ", timeouts=" + timeouts +
+                    ", validationFailures=" + validationFailures +
+                    ", evicted=" + evicted +
+                    ", averageWaitMicros=" + averageWaitMicros +
+                    ", statementHits=" + statementHits +
+                    ", statementMisses=" + statementMisses +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package scheduler.db;
+
+import scheduler.assignment.AssignmentStrategies;
+import scheduler.assignment.AssignmentStrategy;
+import scheduler.cache.AvailabilityIndex;
+import scheduler.metrics.Metrics;
+import scheduler.model.AppointmentDetail;
+import scheduler.model.AppointmentQuery;
+import scheduler.model.AvailabilityUpload;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Reservation;
+import scheduler.model.TimeSlots;
+import scheduler.model.Vaccine;
+import scheduler.model.VaccineAppointment;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Process-local storage engine with the same semantics as the SQL schema.
+ *
+ * Nothing is persisted, which makes it a fast engine for local runs and a stand-in
+ * database for benchmarks and load tests. All operations are safe to call concurrently.
+ */
+public class InMemoryRepository implements SchedulerRepository {
+
+    private final Map<String, UserRecord<Patient>> patients = new ConcurrentHashMap<>();
+    private final Map<Integer, String> patientNames = new ConcurrentHashMap<>();
+    private final AtomicInteger nextPatientId = new AtomicInteger(1);
+
+    private final Map<String, UserRecord<Caregiver>> caregivers = new ConcurrentHashMap<>();
+    private final Map<Integer, String> caregiverNames = new ConcurrentHashMap<>();
+    private final AtomicInteger nextCaregiverId = new AtomicInteger(1);
+
+    // a caregiver's ordinal in the index is assigned when the caregiver is saved
+    private final AvailabilityIndex availabilities = new AvailabilityIndex(TimeSlots.configured().fullMask());
+    private final AssignmentStrategy assignment = AssignmentStrategies.fromEnvironment();
+
+    private final Map<String, VaccineRecord> vaccines = new ConcurrentHashMap<>();
+    private final Map<Integer, String> vaccineNames = new ConcurrentHashMap<>();
+    private final AtomicInteger nextVaccineId = new AtomicInteger(1);
+
+    private final ConcurrentSkipListMap<Integer, VaccineAppointment> appointments = new ConcurrentSkipListMap<>();
+    private final AtomicInteger nextAppointmentId = new AtomicInteger(1);
+    // slots lost to a concurrent reservation
+    private final LongAdder reserveConflicts = Metrics.counter("reserve.conflicts");
+
+    @Override
+    public boolean patientExists(String username) {
+        return patients.containsKey(username);
+    }
+
+    @Override
+    public void savePatient(Patient patient) throws SQLException {
+        int id = nextPatientId.getAndIncrement();
+        Patient stored = new Patient.PatientBuilder(patient.getUsername(), patient.getSalt(), patient.getHash()).patientId(id).build();
+        if (patients.putIfAbsent(patient.getUsername(), new UserRecord<>(id, stored)) != null) {
+            throw duplicateKey("Patient", patient.getUsername());
+        }
+        patientNames.put(id, patient.getUsername());
+    }
+
+    @Override
+    public Patient getPatient(String username) {
+        UserRecord<Patient> record = patients.get(username);
+        return record == null ? null : record.user;
+    }
+
+    @Override
+    public int getPatientId(String username, byte[] salt, byte[] hash) throws SQLException {
+        UserRecord<Patient> record = patients.get(username);
+        if (record == null || !Arrays.equals(record.user.getSalt(), salt) || !Arrays.equals(record.user.getHash(), hash)) {
+            throw new SQLException("No patient found with these credentials");
+        }
+        return record.id;
+    }
+
+    @Override
+    public boolean caregiverExists(String username) {
+        return caregivers.containsKey(username);
+    }
+
+    @Override
+    public void saveCaregiver(Caregiver caregiver) throws SQLException {
+        int id = nextCaregiverId.getAndIncrement();
+        Caregiver stored = new Caregiver.CaregiverBuilder(caregiver.getUsername(), caregiver.getSalt(), caregiver.getHash()).caregiverId(id).build();
+        if (caregivers.putIfAbsent(caregiver.getUsername(), new UserRecord<>(id, stored)) != null) {
+            throw duplicateKey("Caregiver", caregiver.getUsername());
+        }
+        caregiverNames.put(id, caregiver.getUsername());
+        availabilities.register(caregiver.getUsername());
+    }
+
+    @Override
+    public Caregiver getCaregiver(String username) {
+        UserRecord<Caregiver> record = caregivers.get(username);
+        return record == null ? null : record.user;
+    }
+
+    @Override
+    public int getCaregiverId(String username, byte[] salt, byte[] hash) throws SQLException {
+        UserRecord<Caregiver> record = caregivers.get(username);
+        if (record == null || !Arrays.equals(record.user.getSalt(), salt) || !Arrays.equals(record.user.getHash(), hash)) {
+            throw new SQLException("No caregiver found with these credentials");
+        }
+        return record.id;
+    }
+
+    @Override
+    public void uploadAvailability(String caregiverUsername, Date date) throws SQLException {
+        int ordinal = availabilities.ordinal(caregiverUsername);
+        if (ordinal < 0) {
+            throw new SQLIntegrityConstraintViolationException("No caregiver named " + caregiverUsername);
+        }
+        if (!availabilities.publish(AvailabilityIndex.epochDay(date), ordinal)) {
+            throw duplicateKey("Availabilities", date + ", " + caregiverUsername);
+        }
+    }
+
+    @Override
+    public AvailabilityUpload uploadAvailability(String caregiverUsername, List<Date> dates) throws SQLException {
+        int ordinal = availabilities.ordinal(caregiverUsername);
+        if (ordinal < 0) {
+            throw new SQLIntegrityConstraintViolationException("No caregiver named " + caregiverUsername);
+        }
+        AvailabilityUpload result = new AvailabilityUpload();
+        for (Date date : dates) {
+            if (availabilities.publish(AvailabilityIndex.epochDay(date), ordinal)) {
+                result.uploaded(date);
+            } else {
+                result.conflict(date, "already uploaded");
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<String> getAvailableCaregivers(Date date) {
+        long day = AvailabilityIndex.epochDay(date);
+        List<String> result = new ArrayList<>();
+        for (int ordinal = availabilities.firstFree(day); ordinal >= 0; ordinal = availabilities.nextFree(day, ordinal + 1)) {
+            result.add(availabilities.username(ordinal));
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    @Override
+    public SortedMap<String, Long> getFreeSlots(Date date) {
+        long day = AvailabilityIndex.epochDay(date);
+        SortedMap<String, Long> result = new TreeMap<>();
+        for (int ordinal = availabilities.firstFree(day); ordinal >= 0; ordinal = availabilities.nextFree(day, ordinal + 1)) {
+            long slots = availabilities.freeSlots(day, ordinal);
+            if (slots != 0) {
+                result.put(availabilities.username(ordinal), slots);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public SortedMap<Date, Integer> countAvailableCaregivers(Date start, Date end) {
+        SortedMap<Date, Integer> counts = new TreeMap<>();
+        for (LocalDate day = start.toLocalDate(); !day.isAfter(end.toLocalDate()); day = day.plusDays(1)) {
+            counts.put(Date.valueOf(day), availabilities.countFree(day.toEpochDay()));
+        }
+        return counts;
+    }
+
+    @Override
+    public List<Vaccine> getVaccines() throws SQLException {
+        List<Vaccine> result = new ArrayList<>();
+        for (Map.Entry<String, VaccineRecord> entry : vaccines.entrySet()) {
+            result.add(new Vaccine.VaccineBuilder(entry.getKey(), entry.getValue().quantity.get()).build());
+        }
+        return result;
+    }
+
+    @Override
+    public Vaccine getVaccine(String vaccineName) throws SQLException {
+        VaccineRecord record = vaccines.get(vaccineName);
+        return record == null ? null : new Vaccine.VaccineBuilder(vaccineName, record.quantity.get()).build();
+    }
+
+    @Override
+    public void saveVaccine(Vaccine vaccine) throws SQLException {
+        int id = nextVaccineId.getAndIncrement();
+        if (vaccines.putIfAbsent(vaccine.getVaccineName(), new VaccineRecord(id, vaccine.getAvailableDoses())) != null) {
+            throw duplicateKey("Vaccine", vaccine.getVaccineName());
+        }
+        vaccineNames.put(id, vaccine.getVaccineName());
+    }
+
+    @Override
+    public void addDoses(String vaccineName, int change) {
+        VaccineRecord record = vaccines.get(vaccineName);
+        if (record == null) {
+            throw new IllegalArgumentException("No such vaccine");
+        }
+        if (!record.tryAdd(change)) {
+            throw new IllegalArgumentException("Not enough available doses!");
+        }
+    }
+
+    @Override
+    public Map<String, String> importDoses(Map<String, Integer> changes) {
+        Map<String, String> refused = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> change : changes.entrySet()) {
+            String name = change.getKey();
+            VaccineRecord record = vaccines.get(name);
+            if (record == null && change.getValue() >= 0) {
+                int id = nextVaccineId.getAndIncrement();
+                record = vaccines.putIfAbsent(name, new VaccineRecord(id, change.getValue()));
+                if (record == null) {
+                    vaccineNames.put(id, name);
+                    continue;
+                }
+            }
+            if (record == null) {
+                refused.put(name, "no such vaccine");
+            } else if (!record.tryAdd(change.getValue())) {
+                refused.put(name, "not enough available doses");
+            }
+        }
+        return refused;
+    }
+
+    // lock-free: the dose and the slot are each claimed with a compare-and-set, and a
+    // lost race on a slot just asks the assignment strategy for another caregiver
+    @Override
+    public Reservation reserve(int patientId, Date date, int slot, String vaccineName) throws SQLException {
+        VaccineRecord vaccine = vaccines.get(vaccineName);
+        if (vaccine == null || !vaccine.tryAdd(-1)) {
+            return Reservation.noDoses();
+        }
+        long day = AvailabilityIndex.epochDay(date);
+        for (int ordinal = candidate(day, slot); ordinal >= 0; ordinal = candidate(day, slot)) {
+            int claimed = availabilities.claim(day, ordinal, slot);
+            if (claimed >= 0) {
+                assignment.booked(day, ordinal);
+                String caregiverUsername = availabilities.username(ordinal);
+                int appointmentId = nextAppointmentId.getAndIncrement();
+                int caregiverId = caregivers.get(caregiverUsername).id;
+                appointments.put(appointmentId, new VaccineAppointment(appointmentId, patientId, caregiverId, vaccine.id, date, claimed));
+                return Reservation.reserved(appointmentId, caregiverUsername, claimed);
+            }
+            reserveConflicts.increment();
+        }
+        vaccine.quantity.incrementAndGet();
+        return Reservation.noCaregiver();
+    }
+
+    // any caregiver the strategy likes when no time was asked for, else the first one free at that time
+    private int candidate(long day, int slot) {
+        return slot == TimeSlots.ANY ? assignment.pick(availabilities, day) : availabilities.nextFreeAt(day, 0, slot);
+    }
+
+    @Override
+    public void saveAppointment(VaccineAppointment appointment) {
+        int appointmentId = nextAppointmentId.getAndIncrement();
+        appointments.put(appointmentId, new VaccineAppointment(appointmentId, appointment.getPatientId(),
+                appointment.getCaregiverId(), appointment.getVaccineId(), appointment.getDate(), appointment.getSlot()));
+    }
+
+    @Override
+    public boolean cancelPatientAppointment(int appointmentId, int patientId) {
+        VaccineAppointment appointment = appointments.get(appointmentId);
+        if (appointment == null || appointment.getPatientId() != patientId) {
+            return false;
+        }
+        return cancel(appointment);
+    }
+
+    @Override
+    public boolean cancelCaregiverAppointment(int appointmentId, int caregiverId) {
+        VaccineAppointment appointment = appointments.get(appointmentId);
+        if (appointment == null || appointment.getCaregiverId() != caregiverId) {
+            return false;
+        }
+        return cancel(appointment);
+    }
+
+    @Override
+    public List<AppointmentDetail> getPatientAppointments(int patientId) {
+        List<AppointmentDetail> result = new ArrayList<>();
+        streamPatientAppointments(patientId, AppointmentQuery.all(), result::add);
+        return result;
+    }
+
+    @Override
+    public List<AppointmentDetail> getCaregiverAppointments(int caregiverId) {
+        List<AppointmentDetail> result = new ArrayList<>();
+        streamCaregiverAppointments(caregiverId, AppointmentQuery.all(), result::add);
+        return result;
+    }
+
+    @Override
+    public int streamPatientAppointments(int patientId, AppointmentQuery query, Consumer<AppointmentDetail> sink) {
+        int count = 0;
+        for (VaccineAppointment appointment : appointments.tailMap(query.getAfterId(), false).values()) {
+            if (count == query.getLimit()) {
+                break;
+            }
+            if (appointment.getPatientId() == patientId && query.covers(toSqlDate(appointment.getDate()))) {
+                sink.accept(toDetail(appointment, caregiverNames.get(appointment.getCaregiverId())));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int streamCaregiverAppointments(int caregiverId, AppointmentQuery query, Consumer<AppointmentDetail> sink) {
+        int count = 0;
+        for (VaccineAppointment appointment : appointments.tailMap(query.getAfterId(), false).values()) {
+            if (count == query.getLimit()) {
+                break;
+            }
+            if (appointment.getCaregiverId() == caregiverId && query.covers(toSqlDate(appointment.getDate()))) {
+                sink.accept(toDetail(appointment, patientNames.get(appointment.getPatientId())));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private boolean cancel(VaccineAppointment appointment) {
+        // only the caller that actually removes the appointment releases its slot and dose
+        if (!appointments.remove(appointment.getAppointmentId(), appointment)) {
+            return false;
+        }
+        String caregiverUsername = caregiverNames.get(appointment.getCaregiverId());
+        if (caregiverUsername != null) {
+            int ordinal = availabilities.ordinal(caregiverUsername);
+            long day = AvailabilityIndex.epochDay(toSqlDate(appointment.getDate()));
+            availabilities.release(day, ordinal, appointment.getSlot());
+            assignment.released(day, ordinal);
+        }
+        String vaccineName = vaccineNames.get(appointment.getVaccineId());
+        VaccineRecord vaccine = vaccineName == null ? null : vaccines.get(vaccineName);
+        if (vaccine != null) {
+            vaccine.quantity.incrementAndGet();
+        }
+        return true;
+    }
+
+    private AppointmentDetail toDetail(VaccineAppointment appointment, String counterpart) {
+        return new AppointmentDetail(appointment.getAppointmentId(), vaccineNames.get(appointment.getVaccineId()),
+                toSqlDate(appointment.getDate()), appointment.getSlot(), counterpart);
+    }
+
+    private static Date toSqlDate(java.util.Date date) {
+        return date instanceof Date ? (Date) date : new Date(date.getTime());
+    }
+
+    private static SQLException duplicateKey(String table, String key) {
+        return new SQLIntegrityConstraintViolationException(
+                "Violation of PRIMARY KEY constraint. Cannot insert duplicate key value in " + table + ": " + key);
+    }
+
+    private static final class UserRecord<T> {
+        private final int id;
+        private final T user;
+
+        private UserRecord(int id, T user) {
+            this.id = id;
+            this.user = user;
+        }
+    }
+
+    private static final class VaccineRecord {
+        private final int id;
+        private final AtomicInteger quantity;
+
+        private VaccineRecord(int id, int quantity) {
+            this.id = id;
+            this.quantity = new AtomicInteger(quantity);
+        }
+
+        // applies the change unless it would take the stock below zero
+        private boolean tryAdd(int change) {
+            int current;
+            do {
+                current = quantity.get();
+                if (current + change < 0) {
+                    return false;
+                }
+            } while (!quantity.compareAndSet(current, current + change));
+            return true;
+        }
+    }
+}
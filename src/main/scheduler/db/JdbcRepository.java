@@ -0,0 +1,1454 @@
+package scheduler.db;
+
+import scheduler.assignment.AssignmentStrategies;
+import scheduler.assignment.AssignmentStrategy;
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.VaccineInventory;
+import scheduler.journal.JournalEntry;
+import scheduler.journal.OfflineJournal;
+import scheduler.journal.ReplayResult;
+import scheduler.metrics.Metrics;
+import scheduler.model.AppointmentDetail;
+import scheduler.model.AppointmentQuery;
+import scheduler.model.AvailabilityUpload;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Reservation;
+import scheduler.model.TimeSlots;
+import scheduler.model.Vaccine;
+import scheduler.model.VaccineAppointment;
+import scheduler.util.Util;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.SQLTransientException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * SQL Server storage engine, using pooled connections from ConnectionManager.
+ *
+ * Caregiver availability is mirrored in an AvailabilityIndex, loaded from Availabilities the
+ * first time it is needed and kept current by this repository's own writes, so searches and
+ * the caregiver pick in reserve do not go to the database. Writes made by other processes are
+ * picked up by re-reading the table (today and later; past days are dropped) once past
+ * AvailabilityTtlMillis, and by re-reading the day when reserve finds nobody free on it. The database stays the authority: a slot is only
+ * booked if the conditional UPDATE in reserve succeeds, so a stale index entry (for example a
+ * slot booked by another process) costs a retry, never a double booking.
+ *
+ * Dose counts live in a VaccineInventory loaded from Vaccine on first use, which doubles as a
+ * read-through catalog cache: search and reserve read it instead of querying Vaccine, and it
+ * is re-read once past its TTL or after a write finds it stale. Depending on its durability
+ * mode, dose changes are written inside the command's own transaction or queued and flushed
+ * to the database in batches.
+ *
+ * With JournalFile set, reservations, availability uploads and dose changes that cannot get a
+ * connection are checked against the index and the inventory and recorded in an OfflineJournal
+ * instead, which replays them here once the database is back.
+ */
+public class JdbcRepository implements SchedulerRepository {
+
+    private static final String NO_DOSES_LEFT = "not enough available doses in the database";
+
+    private final RetryPolicy retryPolicy = RetryPolicy.fromEnvironment();
+    private final int appointmentFetchSize = Util.getEnvInt("AppointmentFetchSize", 100);
+    private final TimeSlots slots = TimeSlots.configured();
+    private final AvailabilityIndex availabilityIndex = new AvailabilityIndex(slots.fullMask());
+    private final AssignmentStrategy assignment = AssignmentStrategies.fromEnvironment();
+    private final long indexTtlNanos = TimeUnit.MILLISECONDS.toNanos(Util.getEnvInt("AvailabilityTtlMillis", 30000));
+    private volatile boolean indexLoaded = false;
+    // held while the index is read from the database; a lock rather than a monitor, so a virtual
+    // thread doing those reads does not pin its carrier thread
+    private final ReentrantLock indexLock = new ReentrantLock();
+    // reserves between their claim in the index and its commit or rollback, by day and caregiver
+    private final ConcurrentHashMap<Long, Integer> claimsInFlight = new ConcurrentHashMap<>();
+    // System.nanoTime() of the last full read of Availabilities
+    private volatile long indexLoadedAt = 0;
+    private final VaccineInventory inventory = VaccineInventory.fromEnvironment(this::writeDoseChanges);
+    private final LongAdder catalogHits = Metrics.counter("vaccineCatalog.hits");
+    private final LongAdder catalogMisses = Metrics.counter("vaccineCatalog.misses");
+    private final LongAdder catalogLoads = Metrics.counter("vaccineCatalog.loads");
+    // slots lost to another reservation, and transactions retried after a transient failure
+    private final LongAdder reserveConflicts = Metrics.counter("reserve.conflicts");
+    private final LongAdder reserveRetries = Metrics.counter("reserve.retries");
+    // runs the cold reads of reserve side by side
+    private final ExecutorService prefetchExecutor = Util.newVirtualThreadExecutor("reserve-prefetch");
+    // null unless JournalFile is set; last, as its replay thread may call back into this repository
+    private final OfflineJournal journal = OfflineJournal.fromEnvironment(this::applyJournalEntry, this::databaseReachable);
+
+    @Override
+    public boolean patientExists(String username) throws SQLException {
+        return exists("SELECT * FROM Patient WHERE Username = ?", username);
+    }
+
+    @Override
+    public void savePatient(Patient patient) throws SQLException {
+        insertUser("INSERT INTO Patient (username, salt, hash) VALUES (?, ?, ?)",
+                patient.getUsername(), patient.getSalt(), patient.getHash());
+    }
+
+    @Override
+    public Patient getPatient(String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String getPatient = "SELECT patientId, salt, hash FROM Patient WHERE username = ?";
+        try (PreparedStatement statement = con.prepareStatement(getPatient)) {
+            statement.setString(1, username);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    return new Patient.PatientBuilder(username, resultSet.getBytes("salt"),
+                            resultSet.getBytes("hash")).patientId(resultSet.getInt("patientId")).build();
+                }
+                return null;
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public int getPatientId(String username, byte[] salt, byte[] hash) throws SQLException {
+        return findUserId("SELECT patientId FROM Patient WHERE Username = ? AND Salt = ? AND Hash = ?",
+                username, salt, hash, "No patient found with these credentials");
+    }
+
+    @Override
+    public boolean caregiverExists(String username) throws SQLException {
+        return exists("SELECT * FROM Caregiver WHERE Username = ?", username);
+    }
+
+    @Override
+    public void saveCaregiver(Caregiver caregiver) throws SQLException {
+        insertUser("INSERT INTO Caregiver (username, salt, hash) VALUES (?, ?, ?)",
+                caregiver.getUsername(), caregiver.getSalt(), caregiver.getHash());
+    }
+
+    @Override
+    public Caregiver getCaregiver(String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String getCaregiver = "SELECT caregiverId, salt, hash FROM Caregiver WHERE username = ?";
+        try (PreparedStatement statement = con.prepareStatement(getCaregiver)) {
+            statement.setString(1, username);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    return new Caregiver.CaregiverBuilder(username, resultSet.getBytes("salt"),
+                            resultSet.getBytes("hash")).caregiverId(resultSet.getInt("caregiverId")).build();
+                }
+                return null;
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public int getCaregiverId(String username, byte[] salt, byte[] hash) throws SQLException {
+        return findUserId("SELECT caregiverId FROM Caregiver WHERE Username = ? AND Salt = ? AND Hash = ?",
+                username, salt, hash, "No caregiver found with these credentials");
+    }
+
+    @Override
+    public void uploadAvailability(String caregiverUsername, Date date) throws SQLException {
+        loadIndex();
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connectOrGoOffline(cm);
+        if (con == null) {
+            if (uploadOffline(caregiverUsername, Collections.singletonList(date)).getUploaded().isEmpty()) {
+                throw new SQLException("Availability on " + date + " is already uploaded");
+            }
+            return;
+        }
+
+        String addAvailability = "INSERT INTO Availabilities (dateAvailable, username, isAvailable) VALUES (?, ?, 1)";
+        try (PreparedStatement statement = con.prepareStatement(addAvailability)) {
+            statement.setDate(1, date);
+            statement.setString(2, caregiverUsername);
+            statement.executeUpdate();
+        } finally {
+            cm.closeConnection();
+        }
+        availabilityIndex.publish(AvailabilityIndex.epochDay(date), availabilityIndex.register(caregiverUsername));
+    }
+
+    /**
+     * Adds all the dates in one transaction: one query finds the dates the caregiver already
+     * has, and the rest go in as a single batched INSERT. If the batch still hits a duplicate
+     * (a row added concurrently), it is rolled back and the dates are inserted one at a time
+     * behind savepoints, so only the conflicting rows are skipped.
+     */
+    @Override
+    public AvailabilityUpload uploadAvailability(String caregiverUsername, List<Date> dates) throws SQLException {
+        loadIndex();
+        AvailabilityUpload result = new AvailabilityUpload();
+        if (dates.isEmpty()) {
+            return result;
+        }
+        Date first = dates.get(0);
+        Date last = dates.get(0);
+        for (Date date : dates) {
+            first = date.before(first) ? date : first;
+            last = date.after(last) ? date : last;
+        }
+
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connectOrGoOffline(cm);
+        if (con == null) {
+            return uploadOffline(caregiverUsername, dates);
+        }
+
+        String findExisting = "SELECT dateAvailable FROM Availabilities " +
+                "WHERE username = ? AND dateAvailable BETWEEN ? AND ?";
+        String addAvailability = "INSERT INTO Availabilities (dateAvailable, username, isAvailable) VALUES (?, ?, 1)";
+        List<Date> added;
+        try {
+            con.setAutoCommit(false);
+            Set<LocalDate> existing = new HashSet<>();
+            try (PreparedStatement statement = con.prepareStatement(findExisting)) {
+                statement.setString(1, caregiverUsername);
+                statement.setDate(2, first);
+                statement.setDate(3, last);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        existing.add(resultSet.getDate("dateAvailable").toLocalDate());
+                    }
+                }
+            }
+
+            List<Date> pending = new ArrayList<>();
+            for (Date date : dates) {
+                // also drops dates repeated in the input
+                if (!existing.add(date.toLocalDate())) {
+                    result.conflict(date, "already uploaded");
+                } else {
+                    pending.add(date);
+                }
+            }
+
+            try (PreparedStatement statement = con.prepareStatement(addAvailability)) {
+                for (Date date : pending) {
+                    statement.setDate(1, date);
+                    statement.setString(2, caregiverUsername);
+                    statement.addBatch();
+                }
+                try {
+                    statement.executeBatch();
+                    added = pending;
+                } catch (BatchUpdateException e) {
+                    if (!isConstraintViolation(e)) {
+                        throw e;
+                    }
+                    con.rollback();
+                    added = insertEach(con, statement, caregiverUsername, pending, result);
+                }
+            }
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+
+        int ordinal = availabilityIndex.register(caregiverUsername);
+        for (Date date : added) {
+            result.uploaded(date);
+            availabilityIndex.publish(AvailabilityIndex.epochDay(date), ordinal);
+        }
+        return result;
+    }
+
+    @Override
+    public List<String> getAvailableCaregivers(Date date) throws SQLException {
+        loadIndex();
+        long day = AvailabilityIndex.epochDay(date);
+        List<String> caregivers = new ArrayList<>();
+        for (int ordinal = availabilityIndex.firstFree(day); ordinal >= 0; ordinal = availabilityIndex.nextFree(day, ordinal + 1)) {
+            caregivers.add(availabilityIndex.username(ordinal));
+        }
+        Collections.sort(caregivers);
+        return caregivers;
+    }
+
+    @Override
+    public SortedMap<String, Long> getFreeSlots(Date date) throws SQLException {
+        loadIndex();
+        long day = AvailabilityIndex.epochDay(date);
+        SortedMap<String, Long> result = new TreeMap<>();
+        for (int ordinal = availabilityIndex.firstFree(day); ordinal >= 0; ordinal = availabilityIndex.nextFree(day, ordinal + 1)) {
+            long free = availabilityIndex.freeSlots(day, ordinal);
+            if (free != 0) {
+                result.put(availabilityIndex.username(ordinal), free);
+            }
+        }
+        return result;
+    }
+
+    // answered from the availability index, so a range of any length costs no round trip
+    @Override
+    public SortedMap<Date, Integer> countAvailableCaregivers(Date start, Date end) throws SQLException {
+        loadIndex();
+        SortedMap<Date, Integer> counts = new TreeMap<>();
+        for (LocalDate day = start.toLocalDate(); !day.isAfter(end.toLocalDate()); day = day.plusDays(1)) {
+            counts.put(Date.valueOf(day), availabilityIndex.countFree(day.toEpochDay()));
+        }
+        return counts;
+    }
+
+    @Override
+    public List<Vaccine> getVaccines() throws SQLException {
+        loadInventory();
+        List<Vaccine> vaccines = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : inventory.snapshot().entrySet()) {
+            vaccines.add(new Vaccine.VaccineBuilder(entry.getKey(), entry.getValue()).build());
+        }
+        return vaccines;
+    }
+
+    @Override
+    public Vaccine getVaccine(String vaccineName) throws SQLException {
+        if (!findVaccine(vaccineName)) {
+            return null;
+        }
+        return new Vaccine.VaccineBuilder(vaccineName, inventory.getAvailableDoses(vaccineName)).build();
+    }
+
+    @Override
+    public void saveVaccine(Vaccine vaccine) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String addDoses = "INSERT INTO Vaccine (name, quantity) VALUES (?, ?)";
+        try (PreparedStatement statement = con.prepareStatement(addDoses, Statement.RETURN_GENERATED_KEYS)) {
+            statement.setString(1, vaccine.getVaccineName());
+            statement.setInt(2, vaccine.getAvailableDoses());
+            statement.executeUpdate();
+            try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
+                if (generatedKeys.next()) {
+                    inventory.load(vaccine.getVaccineName(), generatedKeys.getInt(1), vaccine.getAvailableDoses());
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void addDoses(String vaccineName, int change) throws SQLException {
+        if (!findVaccine(vaccineName)) {
+            throw new IllegalArgumentException("No such vaccine");
+        }
+        if (inventory.isWriteBehind()) {
+            if (!inventory.add(vaccineName, change)) {
+                throw new IllegalArgumentException("Not enough available doses!");
+            }
+            return;
+        }
+
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connectOrGoOffline(cm);
+        if (con == null) {
+            addDosesOffline(vaccineName, change);
+            return;
+        }
+
+        String updateDoses = "UPDATE Vaccine SET quantity = quantity + ? WHERE name = ? AND quantity + ? >= 0";
+        try (PreparedStatement statement = con.prepareStatement(updateDoses)) {
+            statement.setInt(1, change);
+            statement.setString(2, vaccineName);
+            statement.setInt(3, change);
+            if (statement.executeUpdate() == 0) {
+                // memory thought the change fit, so its count is stale
+                inventory.invalidate();
+                throw new IllegalArgumentException("Not enough available doses!");
+            }
+        } finally {
+            cm.closeConnection();
+        }
+        inventory.add(vaccineName, change);
+    }
+
+    /**
+     * Applies all the changes as one batched MERGE in one transaction. A change is refused,
+     * without affecting the others, if it would take an existing vaccine below zero or if it
+     * is negative for a vaccine that does not exist. Write-behind changes still queued are
+     * flushed first so the database checks run against current counts, and removals are checked
+     * against the in-memory count too.
+     */
+    @Override
+    public Map<String, String> importDoses(Map<String, Integer> changes) throws SQLException {
+        loadInventory();
+        inventory.flush();
+        Map<String, String> refused = new LinkedHashMap<>();
+        // removals are taken from memory up front, as reserve takes its dose, so bookings made
+        // while the import runs can never drive the count below zero
+        Set<String> taken = new HashSet<>();
+        List<String> names = new ArrayList<>();
+        for (Map.Entry<String, Integer> change : changes.entrySet()) {
+            String name = change.getKey();
+            if (change.getValue() < 0 && inventory.contains(name)) {
+                if (!inventory.tryMirror(name, change.getValue())) {
+                    refused.put(name, "not enough available doses");
+                    continue;
+                }
+                taken.add(name);
+            }
+            names.add(name);
+        }
+        if (names.isEmpty()) {
+            return refused;
+        }
+
+        // HOLDLOCK keeps the range locked from the match to the insert, so two imports creating
+        // the same vaccine cannot both take the NOT MATCHED branch
+        String upsertDoses = "MERGE Vaccine WITH (HOLDLOCK) AS v USING (VALUES (?, ?)) AS s (name, change) ON v.name = s.name " +
+                "WHEN MATCHED AND v.quantity + s.change >= 0 THEN UPDATE SET quantity = v.quantity + s.change " +
+                "WHEN NOT MATCHED AND s.change >= 0 THEN INSERT (name, quantity) VALUES (s.name, s.change);";
+        ConnectionManager cm = new ConnectionManager();
+        int[] counts;
+        try {
+            Connection con = cm.createConnection();
+            try (PreparedStatement statement = con.prepareStatement(upsertDoses)) {
+                con.setAutoCommit(false);
+                for (String name : names) {
+                    statement.setString(1, name);
+                    statement.setInt(2, changes.get(name));
+                    statement.addBatch();
+                }
+                counts = statement.executeBatch();
+                con.commit();
+            } catch (SQLException | RuntimeException e) {
+                con.rollback();
+                throw e;
+            } finally {
+                cm.closeConnection();
+            }
+        } catch (SQLException | RuntimeException e) {
+            // nothing reached the database, so the removals taken up front go back
+            for (String name : taken) {
+                inventory.mirror(name, -changes.get(name));
+            }
+            throw e;
+        }
+
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i);
+            int change = changes.get(name);
+            if (counts[i] == 0) {
+                if (taken.contains(name)) {
+                    inventory.mirror(name, -change);
+                }
+                inventory.invalidate();
+                refused.put(name, change < 0 && !inventory.contains(name)
+                        ? "no such vaccine" : "not enough available doses");
+            } else if (!inventory.contains(name)) {
+                // created by the import: load its id and count
+                findVaccine(name);
+            } else if (!taken.contains(name)) {
+                inventory.mirror(name, change);
+            }
+        }
+        return refused;
+    }
+
+    /**
+     * Books a free caregiver slot on the date and takes one dose, all in one transaction.
+     *
+     * The candidate is chosen by the assignment strategy (AssignmentStrategy, first-available by
+     * default) from the availability index, or is the first caregiver free at the requested
+     * time. The slot is claimed in the index first so concurrent reservations in this process
+     * never chase the same one. The database slot is then claimed with a conditional UPDATE
+     * (its bit in the slots mask must still be set) and the dose with a
+     * conditional decrement (quantity must still be positive), so two patients can never end up
+     * with the same caregiver or drive the stock negative. A slot already taken in the database
+     * moves on to the next candidate; a deadlock or other transient failure rolls back and
+     * retries with jittered backoff. The dose is taken from the in-memory inventory up front and
+     * given back if nothing is booked; in write-through mode the shared Vaccine row is also
+     * decremented, last, to keep its lock short.
+     *
+     * The dose check comes first, then the caregiver check, as in InMemoryRepository. Both are
+     * answered from memory, and on a cold start the index and the catalog are read concurrently.
+     * The claim, the appointment insert and the decrement go to the server as one batch, so a
+     * booking costs one round trip plus the commit.
+     */
+    @Override
+    public Reservation reserve(int patientId, Date date, int slot, String vaccineName) throws SQLException {
+        boolean vaccineFound = prefetch(vaccineName);
+        // doses are checked before caregivers, as the original reserve did
+        if (!vaccineFound || !inventory.tryTake(vaccineName)) {
+            return Reservation.noDoses();
+        }
+        long day = AvailabilityIndex.epochDay(date);
+        if (candidate(day, slot) < 0) {
+            // another process may have added or freed a slot since the index was read
+            try {
+                refreshDay(date);
+            } catch (SQLException e) {
+                inventory.giveBack(vaccineName);
+                throw e;
+            }
+            if (candidate(day, slot) < 0) {
+                inventory.giveBack(vaccineName);
+                return Reservation.noCaregiver();
+            }
+        }
+
+        int vaccineId = inventory.getVaccineId(vaccineName);
+        boolean doseUsed = false;
+
+        ConnectionManager cm = new ConnectionManager();
+        Connection con;
+        try {
+            con = connectOrGoOffline(cm);
+        } catch (SQLException e) {
+            inventory.giveBack(vaccineName);
+            throw e;
+        }
+        if (con == null) {
+            return reserveOffline(patientId, date, day, slot, vaccineName);
+        }
+
+        // one round trip books the slot: claim it (isAvailable is kept as "has a free slot", the
+        // slots mask is what decides), add the appointment and, in write-through mode, take the
+        // dose; the row at the end says how far it got, and the commit is the only other trip
+        String book = "SET NOCOUNT ON; " +
+                "DECLARE @claimed INT, @appointmentId INT = NULL, @dosed INT = 0; " +
+                "UPDATE Availabilities SET slots = slots & ~?, " +
+                "isAvailable = CASE WHEN slots & ~? & ? = 0 THEN 0 ELSE 1 END " +
+                "WHERE username = ? AND dateAvailable = ? AND slots & ? <> 0; " +
+                "SET @claimed = @@ROWCOUNT; " +
+                "IF @claimed = 1 BEGIN " +
+                "INSERT INTO VaccineAppointment(patientId, date, caregiverId, vaccineId, slot) " +
+                "SELECT ?, ?, caregiverId, ?, ? FROM Caregiver WHERE username = ?; " +
+                "SET @appointmentId = SCOPE_IDENTITY(); " +
+                "IF ? = 1 BEGIN " +
+                "UPDATE Vaccine SET quantity = quantity - 1 WHERE vaccineId = ? AND quantity > 0; " +
+                "SET @dosed = @@ROWCOUNT; " +
+                "END ELSE SET @dosed = 1; " +
+                "END " +
+                "SELECT @claimed AS claimed, @appointmentId AS appointmentId, @dosed AS dosed";
+        try {
+            con.setAutoCommit(false);
+            int attempt = 0;
+            int ordinal = candidate(day, slot);
+            while (ordinal >= 0) {
+                // marked before the claim, so a reload cannot copy the database over it until
+                // the booking is settled one way or the other
+                int held = ordinal;
+                beginClaim(day, held);
+                int claimed = availabilityIndex.claim(day, ordinal, slot);
+                if (claimed < 0) {
+                    // another reservation in this process got there first
+                    endClaim(day, held);
+                    reserveConflicts.increment();
+                    ordinal = candidate(day, slot);
+                    continue;
+                }
+                // counted now rather than after the commit, so concurrent reservations that ask
+                // the strategy meanwhile already see this caregiver's load
+                assignment.booked(day, ordinal);
+                long bit = TimeSlots.bit(claimed);
+                String caregiverUsername = availabilityIndex.username(ordinal);
+                boolean keepClaim = false;
+                try {
+                    boolean slotClaimed;
+                    int appointmentId;
+                    boolean dosed;
+                    try (PreparedStatement statement = con.prepareStatement(book)) {
+                        statement.setLong(1, bit);
+                        statement.setLong(2, bit);
+                        statement.setLong(3, slots.fullMask());
+                        statement.setString(4, caregiverUsername);
+                        statement.setDate(5, date);
+                        statement.setLong(6, bit);
+                        statement.setInt(7, patientId);
+                        statement.setDate(8, date);
+                        statement.setInt(9, vaccineId);
+                        statement.setInt(10, claimed);
+                        statement.setString(11, caregiverUsername);
+                        statement.setInt(12, inventory.isWriteBehind() ? 0 : 1);
+                        statement.setInt(13, vaccineId);
+                        try (ResultSet resultSet = statement.executeQuery()) {
+                            if (!resultSet.next()) {
+                                throw new SQLException("Booking the appointment returned no outcome.");
+                            }
+                            slotClaimed = resultSet.getInt("claimed") == 1;
+                            appointmentId = resultSet.getInt("appointmentId");
+                            if (slotClaimed && resultSet.wasNull()) {
+                                throw new SQLException("Creating appointment failed, no ID obtained.");
+                            }
+                            dosed = resultSet.getInt("dosed") == 1;
+                        }
+                    }
+
+                    if (!slotClaimed) {
+                        // already booked in the database, so the index was stale: leave it claimed
+                        keepClaim = true;
+                        reserveConflicts.increment();
+                        con.rollback();
+                        if (++attempt >= retryPolicy.getMaxAttempts()) {
+                            throw new SQLTransientException("Reservation kept conflicting, gave up after "
+                                    + retryPolicy.getMaxAttempts() + " attempts");
+                        }
+                        ordinal = candidate(day, slot);
+                        continue;
+                    }
+
+                    if (!dosed) {
+                        // the database ran out even though memory had a dose: keep the lower
+                        // count and re-read the catalog on the next call
+                        doseUsed = true;
+                        inventory.invalidate();
+                        con.rollback();
+                        return Reservation.noDoses();
+                    }
+
+                    con.commit();
+                    keepClaim = true;
+                    doseUsed = true;
+                    if (inventory.isWriteBehind()) {
+                        inventory.queue(vaccineName, -1);
+                    }
+                    return Reservation.reserved(appointmentId, caregiverUsername, claimed);
+                } catch (SQLException e) {
+                    if (keepClaim) {
+                        throw e;
+                    }
+                    con.rollback();
+                    if (!RetryPolicy.isTransient(e) || ++attempt >= retryPolicy.getMaxAttempts()) {
+                        throw e;
+                    }
+                    // give the slot back and try it again after a pause
+                    reserveRetries.increment();
+                    availabilityIndex.release(day, ordinal, claimed);
+                    assignment.released(day, ordinal);
+                    keepClaim = true;
+                    retryPolicy.backoff(attempt);
+                    ordinal = candidate(day, slot);
+                } finally {
+                    if (!keepClaim) {
+                        availabilityIndex.release(day, ordinal, claimed);
+                        assignment.released(day, ordinal);
+                    }
+                    endClaim(day, held);
+                }
+            }
+            con.rollback();
+            return Reservation.noCaregiver();
+        } finally {
+            if (!doseUsed) {
+                inventory.giveBack(vaccineName);
+            }
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void saveAppointment(VaccineAppointment appointment) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String addAppointment = "INSERT INTO VaccineAppointment(patientId, date, caregiverId, vaccineId, slot) VALUES (?, ?, ?, ?, ?)";
+        try (PreparedStatement statement = con.prepareStatement(addAppointment)) {
+            statement.setInt(1, appointment.getPatientId());
+            statement.setDate(2, new Date(appointment.getDate().getTime()));
+            statement.setInt(3, appointment.getCaregiverId());
+            statement.setInt(4, appointment.getVaccineId());
+            statement.setInt(5, appointment.getSlot());
+            statement.executeUpdate();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public boolean cancelPatientAppointment(int appointmentId, int patientId) throws SQLException {
+        return cancel("SELECT va.date, va.slot, va.vaccineId, v.name, c.username FROM VaccineAppointment va " +
+                "JOIN Caregiver c ON va.caregiverId = c.caregiverId JOIN Vaccine v ON va.vaccineId = v.vaccineId " +
+                "WHERE va.appointmentId = ? AND va.patientId = ?", appointmentId, patientId);
+    }
+
+    @Override
+    public boolean cancelCaregiverAppointment(int appointmentId, int caregiverId) throws SQLException {
+        return cancel("SELECT va.date, va.slot, va.vaccineId, v.name, c.username FROM VaccineAppointment va " +
+                "JOIN Caregiver c ON va.caregiverId = c.caregiverId JOIN Vaccine v ON va.vaccineId = v.vaccineId " +
+                "WHERE va.appointmentId = ? AND va.caregiverId = ?", appointmentId, caregiverId);
+    }
+
+    @Override
+    public List<AppointmentDetail> getPatientAppointments(int patientId) throws SQLException {
+        List<AppointmentDetail> appointments = new ArrayList<>();
+        streamPatientAppointments(patientId, AppointmentQuery.all(), appointments::add);
+        return appointments;
+    }
+
+    @Override
+    public List<AppointmentDetail> getCaregiverAppointments(int caregiverId) throws SQLException {
+        List<AppointmentDetail> appointments = new ArrayList<>();
+        streamCaregiverAppointments(caregiverId, AppointmentQuery.all(), appointments::add);
+        return appointments;
+    }
+
+    @Override
+    public int streamPatientAppointments(int patientId, AppointmentQuery query, Consumer<AppointmentDetail> sink) throws SQLException {
+        return streamAppointments("SELECT TOP (?) va.appointmentId, v.name AS vaccine_name, va.date, va.slot, c.username AS counterpart " +
+                "FROM VaccineAppointment va " +
+                "JOIN Vaccine v ON va.vaccineId = v.vaccineId " +
+                "JOIN Caregiver c ON va.caregiverId = c.caregiverId " +
+                "WHERE va.patientId = ? AND va.appointmentId > ?", patientId, query, sink);
+    }
+
+    @Override
+    public int streamCaregiverAppointments(int caregiverId, AppointmentQuery query, Consumer<AppointmentDetail> sink) throws SQLException {
+        return streamAppointments("SELECT TOP (?) va.appointmentId, v.name AS vaccine_name, va.date, va.slot, p.username AS counterpart " +
+                "FROM VaccineAppointment va " +
+                "JOIN Vaccine v ON va.vaccineId = v.vaccineId " +
+                "JOIN Patient p ON va.patientId = p.patientId " +
+                "WHERE va.caregiverId = ? AND va.appointmentId > ?", caregiverId, query, sink);
+    }
+
+    @Override
+    public void close() throws SQLException {
+        prefetchExecutor.shutdown();
+        if (journal != null) {
+            journal.close();
+        }
+        inventory.close();
+    }
+
+    // loads the availability index and finds the vaccine; the two reads do not depend on each
+    // other, so when both still have to go to the database the index is read on another thread
+    private boolean prefetch(String vaccineName) throws SQLException {
+        if (indexLoaded || offline() || (!inventory.needsReload() && inventory.contains(vaccineName))) {
+            loadIndex();
+            return findVaccine(vaccineName);
+        }
+        CompletableFuture<Void> index = CompletableFuture.runAsync(() -> {
+            try {
+                loadIndex();
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, prefetchExecutor);
+        boolean found = findVaccine(vaccineName);
+        try {
+            index.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw e;
+        }
+        return found;
+    }
+
+    // true if the vaccine exists; loads the catalog on first use and picks up vaccines added elsewhere
+    private boolean findVaccine(String vaccineName) throws SQLException {
+        loadInventory();
+        if (inventory.contains(vaccineName)) {
+            catalogHits.increment();
+            return true;
+        }
+        catalogMisses.increment();
+        if (offline()) {
+            return false;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String getVaccine = "SELECT vaccineId, quantity FROM Vaccine WHERE name = ?";
+        try (PreparedStatement statement = con.prepareStatement(getVaccine)) {
+            statement.setString(1, vaccineName);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return false;
+                }
+                inventory.load(vaccineName, resultSet.getInt("vaccineId"), resultSet.getInt("quantity"));
+                return true;
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // reads the whole Vaccine table into the inventory when it was never loaded, was
+    // invalidated, or is past its TTL; offline, the counts in memory are all there is
+    private void loadInventory() throws SQLException {
+        if (!inventory.needsReload() || offline()) {
+            return;
+        }
+        boolean loaded = inventory.reload(() -> {
+            ConnectionManager cm = new ConnectionManager();
+            Connection con = cm.createConnection();
+
+            String loadVaccines = "SELECT vaccineId, name, quantity FROM Vaccine";
+            try (PreparedStatement statement = con.prepareStatement(loadVaccines);
+                 ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    inventory.refresh(resultSet.getString("name"), resultSet.getInt("vaccineId"), resultSet.getInt("quantity"));
+                }
+            } finally {
+                cm.closeConnection();
+            }
+        });
+        if (loaded) {
+            catalogLoads.increment();
+        }
+    }
+
+    // flushes coalesced write-behind changes as one batch in one transaction
+    private void writeDoseChanges(Map<String, Integer> changes) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String updateDoses = "UPDATE Vaccine SET quantity = quantity + ? WHERE name = ?";
+        try (PreparedStatement statement = con.prepareStatement(updateDoses)) {
+            con.setAutoCommit(false);
+            for (Map.Entry<String, Integer> change : changes.entrySet()) {
+                statement.setInt(1, change.getValue());
+                statement.setString(2, change.getKey());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // any caregiver the strategy likes when no time was asked for, else the first one free at that time
+    private int candidate(long day, int slot) {
+        return slot == TimeSlots.ANY ? assignment.pick(availabilityIndex, day) : availabilityIndex.nextFreeAt(day, 0, slot);
+    }
+
+    // a connection, or null once the engine is offline; only a server that cannot be reached
+    // sends it offline, other failures to get a connection (such as a busy pool) are thrown
+    private Connection connectOrGoOffline(ConnectionManager cm) throws SQLException {
+        if (offline()) {
+            return null;
+        }
+        try {
+            return cm.createConnection();
+        } catch (SQLException e) {
+            if (journal == null || !isConnectionFailure(e)) {
+                throw e;
+            }
+            e.printStackTrace();
+            journal.goOffline();
+            return null;
+        }
+    }
+
+    // the server could not be reached or the link to it broke; SQL Server reports these with
+    // SQLState class 08
+    private static boolean isConnectionFailure(SQLException e) {
+        return e instanceof SQLNonTransientConnectionException
+                || e instanceof SQLTransientConnectionException
+                || (e.getSQLState() != null && e.getSQLState().startsWith("08"));
+    }
+
+    // true while writes go to the journal instead of the database
+    private boolean offline() {
+        return journal != null && journal.isOffline();
+    }
+
+    // used by the journal to tell when the database is back
+    private boolean databaseReachable() {
+        try (Connection con = ConnectionManager.getPool().borrow()) {
+            return con.isValid(5);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    // books from the index and the inventory alone, the dose already taken, and journals the booking
+    private Reservation reserveOffline(int patientId, Date date, long day, int slot, String vaccineName) throws SQLException {
+        for (int ordinal = candidate(day, slot); ordinal >= 0; ordinal = candidate(day, slot)) {
+            int claimed = availabilityIndex.claim(day, ordinal, slot);
+            if (claimed < 0) {
+                reserveConflicts.increment();
+                continue;
+            }
+            assignment.booked(day, ordinal);
+            String caregiverUsername = availabilityIndex.username(ordinal);
+            long sequence;
+            try {
+                sequence = journal.record(JournalEntry.reservation(patientId, date, caregiverUsername, claimed, vaccineName));
+            } catch (SQLException e) {
+                availabilityIndex.release(day, ordinal, claimed);
+                assignment.released(day, ordinal);
+                inventory.giveBack(vaccineName);
+                throw e;
+            }
+            return Reservation.journaled(sequence, caregiverUsername, claimed);
+        }
+        inventory.giveBack(vaccineName);
+        return Reservation.noCaregiver();
+    }
+
+    // dates the index already has for the caregiver are conflicts, the rest are journaled
+    private AvailabilityUpload uploadOffline(String caregiverUsername, List<Date> dates) throws SQLException {
+        AvailabilityUpload result = new AvailabilityUpload();
+        int ordinal = availabilityIndex.register(caregiverUsername);
+        Set<LocalDate> seen = new HashSet<>();
+        List<Date> pending = new ArrayList<>();
+        for (Date date : dates) {
+            if (!seen.add(date.toLocalDate()) || availabilityIndex.hasRow(AvailabilityIndex.epochDay(date), ordinal)) {
+                result.conflict(date, "already uploaded");
+            } else {
+                pending.add(date);
+            }
+        }
+        if (pending.isEmpty()) {
+            return result;
+        }
+        journal.record(JournalEntry.availability(caregiverUsername, pending));
+        for (Date date : pending) {
+            if (availabilityIndex.publish(AvailabilityIndex.epochDay(date), ordinal)) {
+                result.uploaded(date);
+            } else {
+                // uploaded by a concurrent call; replay skips rows that are already there
+                result.conflict(date, "already uploaded");
+            }
+        }
+        return result;
+    }
+
+    private void addDosesOffline(String vaccineName, int change) throws SQLException {
+        if (!inventory.add(vaccineName, change)) {
+            throw new IllegalArgumentException("Not enough available doses!");
+        }
+        try {
+            journal.record(JournalEntry.doses(vaccineName, change));
+        } catch (SQLException e) {
+            inventory.mirror(vaccineName, -change);
+            throw e;
+        }
+    }
+
+    /**
+     * Replays one journal entry. Its (journalId, sequence) row goes into JournalReplay in the
+     * same transaction as its changes, so an entry that is already there is skipped. A change the
+     * database refuses is rolled back but the row is kept, so it is reported once and not retried.
+     * Memory is brought in line afterwards: entries recorded by this process are already there,
+     * entries recovered from an earlier run are not.
+     */
+    private ReplayResult applyJournalEntry(String journalId, JournalEntry entry, boolean recovered) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String markReplayed = "INSERT INTO JournalReplay (journalId, sequence) SELECT ?, ? " +
+                "WHERE NOT EXISTS (SELECT * FROM JournalReplay WHERE journalId = ? AND sequence = ?)";
+        ReplayResult result;
+        try {
+            con.setAutoCommit(false);
+            try (PreparedStatement statement = con.prepareStatement(markReplayed)) {
+                statement.setString(1, journalId);
+                statement.setLong(2, entry.getSequence());
+                statement.setString(3, journalId);
+                statement.setLong(4, entry.getSequence());
+                if (statement.executeUpdate() == 0) {
+                    con.rollback();
+                    return ReplayResult.duplicate();
+                }
+            }
+            Savepoint marked = con.setSavepoint();
+            try {
+                switch (entry.getType()) {
+                    case RESERVATION:
+                        result = replayReservation(con, entry);
+                        break;
+                    case AVAILABILITY:
+                        result = replayAvailability(con, entry);
+                        break;
+                    default:
+                        result = replayDoses(con, entry);
+                        break;
+                }
+            } catch (SQLException e) {
+                // a caregiver or vaccine that is gone would otherwise stop the replay for good
+                if (!isConstraintViolation(e)) {
+                    throw e;
+                }
+                result = ReplayResult.conflict(e.getMessage());
+            }
+            if (result.getStatus() == ReplayResult.Status.CONFLICT && entry.getType() != JournalEntry.Type.AVAILABILITY) {
+                con.rollback(marked);
+            }
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+
+        // a duplicate was handled by whichever replay applied it, so only these two change memory
+        boolean applied = result.getStatus() == ReplayResult.Status.APPLIED;
+        boolean conflicted = result.getStatus() == ReplayResult.Status.CONFLICT;
+        switch (entry.getType()) {
+            case RESERVATION: {
+                // an index not loaded yet will read the row from the database
+                long day = AvailabilityIndex.epochDay(entry.getDate());
+                int ordinal = indexLoaded ? availabilityIndex.register(entry.getCaregiverUsername()) : -1;
+                if (applied && recovered) {
+                    if (ordinal >= 0 && availabilityIndex.claim(day, ordinal, entry.getSlot()) >= 0) {
+                        assignment.booked(day, ordinal);
+                    }
+                    inventory.mirror(entry.getVaccineName(), -1);
+                } else if (conflicted && !recovered) {
+                    // the dose taken offline was not used; if the slot is still free in the
+                    // database, it is free again here too
+                    inventory.giveBack(entry.getVaccineName());
+                    if (NO_DOSES_LEFT.equals(result.getReason()) && ordinal >= 0) {
+                        inventory.invalidate();
+                        availabilityIndex.release(day, ordinal, entry.getSlot());
+                        assignment.released(day, ordinal);
+                    }
+                }
+                break;
+            }
+            case AVAILABILITY:
+                if (recovered && indexLoaded) {
+                    int ordinal = availabilityIndex.register(entry.getCaregiverUsername());
+                    for (Date date : entry.getDates()) {
+                        availabilityIndex.publish(AvailabilityIndex.epochDay(date), ordinal);
+                    }
+                }
+                break;
+            default:
+                if (applied && recovered) {
+                    inventory.mirror(entry.getVaccineName(), entry.getChange());
+                } else if (conflicted && !recovered) {
+                    inventory.mirror(entry.getVaccineName(), -entry.getChange());
+                    inventory.invalidate();
+                }
+                break;
+        }
+        return result;
+    }
+
+    // the slot is claimed and the dose taken as reserve does, with the caregiver and slot fixed
+    private ReplayResult replayReservation(Connection con, JournalEntry entry) throws SQLException {
+        long bit = TimeSlots.bit(entry.getSlot());
+        String claimSlot = "UPDATE Availabilities SET slots = slots & ~?, " +
+                "isAvailable = CASE WHEN slots & ~? & ? = 0 THEN 0 ELSE 1 END " +
+                "WHERE username = ? AND dateAvailable = ? AND slots & ? <> 0";
+        String takeDose = "UPDATE Vaccine SET quantity = quantity - 1 WHERE name = ? AND quantity > 0";
+        String addAppointment = "INSERT INTO VaccineAppointment(patientId, date, caregiverId, vaccineId, slot) " +
+                "OUTPUT INSERTED.appointmentId " +
+                "SELECT ?, ?, c.caregiverId, v.vaccineId, ? FROM Caregiver c JOIN Vaccine v ON v.name = ? WHERE c.username = ?";
+        try (PreparedStatement statement = con.prepareStatement(claimSlot)) {
+            statement.setLong(1, bit);
+            statement.setLong(2, bit);
+            statement.setLong(3, slots.fullMask());
+            statement.setString(4, entry.getCaregiverUsername());
+            statement.setDate(5, entry.getDate());
+            statement.setLong(6, bit);
+            if (statement.executeUpdate() == 0) {
+                return ReplayResult.conflict(entry.getCaregiverUsername() + " is no longer free then");
+            }
+        }
+        try (PreparedStatement statement = con.prepareStatement(takeDose)) {
+            statement.setString(1, entry.getVaccineName());
+            if (statement.executeUpdate() == 0) {
+                return ReplayResult.conflict(NO_DOSES_LEFT);
+            }
+        }
+        try (PreparedStatement statement = con.prepareStatement(addAppointment)) {
+            statement.setInt(1, entry.getPatientId());
+            statement.setDate(2, entry.getDate());
+            statement.setInt(3, entry.getSlot());
+            statement.setString(4, entry.getVaccineName());
+            statement.setString(5, entry.getCaregiverUsername());
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    throw new SQLException("Creating appointment failed, no ID obtained.");
+                }
+                return ReplayResult.booked(resultSet.getInt(1));
+            }
+        }
+    }
+
+    // dates that are already there (uploaded elsewhere, or an earlier replay) are left as they are
+    private ReplayResult replayAvailability(Connection con, JournalEntry entry) throws SQLException {
+        String addAvailability = "INSERT INTO Availabilities (dateAvailable, username, isAvailable) SELECT ?, ?, 1 " +
+                "WHERE NOT EXISTS (SELECT * FROM Availabilities WHERE dateAvailable = ? AND username = ?)";
+        List<Date> existing = new ArrayList<>();
+        try (PreparedStatement statement = con.prepareStatement(addAvailability)) {
+            for (Date date : entry.getDates()) {
+                statement.setDate(1, date);
+                statement.setString(2, entry.getCaregiverUsername());
+                statement.setDate(3, date);
+                statement.setString(4, entry.getCaregiverUsername());
+                statement.addBatch();
+            }
+            int[] counts = statement.executeBatch();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) {
+                    existing.add(entry.getDates().get(i));
+                }
+            }
+        }
+        return existing.isEmpty() ? ReplayResult.applied() : ReplayResult.conflict("already uploaded on " + existing);
+    }
+
+    private ReplayResult replayDoses(Connection con, JournalEntry entry) throws SQLException {
+        String updateDoses = "UPDATE Vaccine SET quantity = quantity + ? WHERE name = ? AND quantity + ? >= 0";
+        try (PreparedStatement statement = con.prepareStatement(updateDoses)) {
+            statement.setInt(1, entry.getChange());
+            statement.setString(2, entry.getVaccineName());
+            statement.setInt(3, entry.getChange());
+            if (statement.executeUpdate() == 0) {
+                return ReplayResult.conflict(entry.getChange() < 0 ? NO_DOSES_LEFT : "no such vaccine in the database");
+            }
+        }
+        return ReplayResult.applied();
+    }
+
+    // reads the Availabilities rows from today on into the index on first use and again once past
+    // its TTL, dropping the days that have gone by; caregivers get ordinals in username order on
+    // the first load. Only the first load makes callers wait: while a reload runs, everyone else
+    // carries on with the index as it is
+    private void loadIndex() throws SQLException {
+        if (!indexNeedsReload()) {
+            return;
+        }
+        if (indexLoaded) {
+            if (!indexLock.tryLock()) {
+                return;
+            }
+        } else {
+            indexLock.lock();
+        }
+        try {
+            if (!indexNeedsReload()) {
+                return;
+            }
+            ConnectionManager cm = new ConnectionManager();
+            Connection con = connectOrGoOffline(cm);
+            if (con == null) {
+                if (indexLoaded) {
+                    // what is in memory is all there is until the database is back
+                    return;
+                }
+                throw new SQLException("The database cannot be reached and availability has not been loaded yet");
+            }
+
+            LocalDate today = LocalDate.now();
+            String loadAvailabilities = "SELECT username, dateAvailable, slots FROM Availabilities " +
+                    "WHERE dateAvailable >= ? ORDER BY username";
+            try (PreparedStatement statement = con.prepareStatement(loadAvailabilities)) {
+                statement.setDate(1, Date.valueOf(today));
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        refreshRow(resultSet.getString("username"), AvailabilityIndex.epochDay(resultSet.getDate("dateAvailable")),
+                                resultSet.getLong("slots"));
+                    }
+                }
+            } finally {
+                cm.closeConnection();
+            }
+            availabilityIndex.pruneBefore(today.toEpochDay());
+            indexLoadedAt = System.nanoTime();
+            indexLoaded = true;
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    private boolean indexNeedsReload() {
+        return !indexLoaded || (!offline() && System.nanoTime() - indexLoadedAt >= indexTtlNanos);
+    }
+
+    // re-reads one day's rows, for when the index says nobody is free on it
+    private void refreshDay(Date date) throws SQLException {
+        if (offline()) {
+            return;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connectOrGoOffline(cm);
+        if (con == null) {
+            return;
+        }
+
+        String getDay = "SELECT username, slots FROM Availabilities WHERE dateAvailable = ?";
+        try (PreparedStatement statement = con.prepareStatement(getDay)) {
+            statement.setDate(1, date);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                long day = AvailabilityIndex.epochDay(date);
+                while (resultSet.next()) {
+                    refreshRow(resultSet.getString("username"), day, resultSet.getLong("slots"));
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // brings one caregiver's day in the index in line with the database, and the assignment
+    // loads with it: slots booked elsewhere count as booked, slots freed elsewhere as released.
+    // A row a reserve here is still booking on is left alone; the reserve settles its own slot
+    // and load, and the next reload catches up with the rest
+    private void refreshRow(String caregiverUsername, long day, long free) {
+        int ordinal = availabilityIndex.register(caregiverUsername);
+        long fullDay = slots.fullMask();
+        long previous;
+        for (;;) {
+            if (!availabilityIndex.hasRow(day, ordinal)) {
+                // nothing can be claimed on a row the index does not have yet
+                if (availabilityIndex.publish(day, ordinal, free)) {
+                    previous = fullDay;
+                    break;
+                }
+                continue;
+            }
+            // the check comes between reading the slots and swapping them, so a claim that
+            // starts after it changes the slots and makes the swap fail
+            previous = availabilityIndex.freeSlots(day, ordinal);
+            if (claimsInFlight.containsKey(claimKey(day, ordinal))) {
+                return;
+            }
+            if (availabilityIndex.compareAndRefresh(day, ordinal, previous, free)) {
+                break;
+            }
+        }
+        for (int booked = Long.bitCount(previous & ~free & fullDay); booked > 0; booked--) {
+            assignment.booked(day, ordinal);
+        }
+        for (int released = Long.bitCount(free & ~previous & fullDay); released > 0; released--) {
+            assignment.released(day, ordinal);
+        }
+    }
+
+    private void beginClaim(long day, int ordinal) {
+        claimsInFlight.merge(claimKey(day, ordinal), 1, Integer::sum);
+    }
+
+    private void endClaim(long day, int ordinal) {
+        claimsInFlight.computeIfPresent(claimKey(day, ordinal), (key, count) -> count == 1 ? null : count - 1);
+    }
+
+    private static long claimKey(long day, int ordinal) {
+        return (day << 32) | ordinal;
+    }
+
+    // slow path of a bulk upload: one insert per date, undoing only the ones that conflict
+    private List<Date> insertEach(Connection con, PreparedStatement statement, String caregiverUsername,
+                                  List<Date> dates, AvailabilityUpload result) throws SQLException {
+        List<Date> added = new ArrayList<>();
+        for (Date date : dates) {
+            Savepoint savepoint = con.setSavepoint();
+            try {
+                statement.setDate(1, date);
+                statement.setString(2, caregiverUsername);
+                statement.executeUpdate();
+                added.add(date);
+            } catch (SQLException e) {
+                if (!isConstraintViolation(e)) {
+                    throw e;
+                }
+                con.rollback(savepoint);
+                result.conflict(date, "already uploaded");
+            }
+        }
+        return added;
+    }
+
+    // duplicate keys and missing caregivers; SQL Server reports both with SQLState class 23
+    private static boolean isConstraintViolation(SQLException e) {
+        return e instanceof SQLIntegrityConstraintViolationException
+                || (e.getSQLState() != null && e.getSQLState().startsWith("23"));
+    }
+
+    private boolean exists(String query, String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        try (PreparedStatement statement = con.prepareStatement(query)) {
+            statement.setString(1, username);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.isBeforeFirst();
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private void insertUser(String insert, String username, byte[] salt, byte[] hash) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        try (PreparedStatement statement = con.prepareStatement(insert)) {
+            statement.setString(1, username);
+            statement.setBytes(2, salt);
+            statement.setBytes(3, hash);
+            statement.executeUpdate();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private int findUserId(String query, String username, byte[] salt, byte[] hash, String notFound) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        try (PreparedStatement statement = con.prepareStatement(query)) {
+            statement.setString(1, username);
+            statement.setBytes(2, salt);
+            statement.setBytes(3, hash);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    return resultSet.getInt(1);
+                }
+                throw new SQLException(notFound);
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // removes the appointment, frees the caregiver's slot and returns the dose in one transaction
+    private boolean cancel(String checkAppointment, int appointmentId, int userId) throws SQLException {
+        loadInventory();
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String deleteAppointment = "DELETE FROM VaccineAppointment WHERE appointmentId = ?";
+        String updateAvailability = "UPDATE Availabilities SET slots = slots | ?, isAvailable = 1 " +
+                "WHERE username = ? AND dateAvailable = ?";
+        String returnDose = "UPDATE Vaccine SET quantity = quantity + 1 WHERE vaccineId = ?";
+        try {
+            con.setAutoCommit(false);
+            Date appointmentDate;
+            int slot;
+            String caregiverUsername;
+            int vaccineId;
+            String vaccineName;
+            try (PreparedStatement statement = con.prepareStatement(checkAppointment)) {
+                statement.setInt(1, appointmentId);
+                statement.setInt(2, userId);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (!resultSet.next()) {
+                        con.rollback();
+                        return false;
+                    }
+                    appointmentDate = resultSet.getDate("date");
+                    slot = resultSet.getInt("slot");
+                    caregiverUsername = resultSet.getString("username");
+                    vaccineId = resultSet.getInt("vaccineId");
+                    vaccineName = resultSet.getString("name");
+                }
+            }
+
+            try (PreparedStatement statement = con.prepareStatement(deleteAppointment)) {
+                statement.setInt(1, appointmentId);
+                if (statement.executeUpdate() == 0) {
+                    // cancelled concurrently by the other party
+                    con.rollback();
+                    return false;
+                }
+            }
+
+            try (PreparedStatement statement = con.prepareStatement(updateAvailability)) {
+                statement.setLong(1, TimeSlots.bit(slot));
+                statement.setString(2, caregiverUsername);
+                statement.setDate(3, appointmentDate);
+                statement.executeUpdate();
+            }
+
+            if (!inventory.isWriteBehind()) {
+                try (PreparedStatement statement = con.prepareStatement(returnDose)) {
+                    statement.setInt(1, vaccineId);
+                    statement.executeUpdate();
+                }
+            }
+            con.commit();
+            inventory.add(vaccineName, 1);
+            if (indexLoaded) {
+                int ordinal = availabilityIndex.register(caregiverUsername);
+                long day = AvailabilityIndex.epochDay(appointmentDate);
+                availabilityIndex.release(day, ordinal, slot);
+                assignment.released(day, ordinal);
+            }
+            return true;
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    /**
+     * Reads one keyset page: the date bounds are only added to the SQL when present, so each of
+     * the few query shapes stays a constant string for the statement cache. Rows are handed to
+     * the sink while the result set is read, with the fetch size capped at the page size, so a
+     * large page is never held in memory twice.
+     */
+    private int streamAppointments(String select, int userId, AppointmentQuery query,
+                                   Consumer<AppointmentDetail> sink) throws SQLException {
+        String sql = select
+                + (query.getFrom() != null ? " AND va.date >= ?" : "")
+                + (query.getTo() != null ? " AND va.date <= ?" : "")
+                + " ORDER BY va.appointmentId";
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        try (PreparedStatement statement = con.prepareStatement(sql)) {
+            int index = 1;
+            statement.setInt(index++, query.getLimit());
+            statement.setInt(index++, userId);
+            statement.setInt(index++, query.getAfterId());
+            if (query.getFrom() != null) {
+                statement.setDate(index++, query.getFrom());
+            }
+            if (query.getTo() != null) {
+                statement.setDate(index, query.getTo());
+            }
+            statement.setFetchSize(Math.min(query.getLimit(), appointmentFetchSize));
+            int count = 0;
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    sink.accept(new AppointmentDetail(resultSet.getInt("appointmentId"),
+                            resultSet.getString("vaccine_name"), resultSet.getDate("date"),
+                            resultSet.getInt("slot"), resultSet.getString("counterpart")));
+                    count++;
+                }
+            }
+            return count;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package scheduler.db;
+
+import java.sql.SQLException;
+
+/**
+ * Holds the storage engine chosen at startup.
+ *
+ * The engine is picked by name: "jdbc" (the default) talks to the SQL Server database
+ * configured for ConnectionManager, "memory" keeps everything in this process.
+ */
+public final class Repositories {
+
+    public static final String JDBC = "jdbc";
+    public static final String MEMORY = "memory";
+
+    private static volatile SchedulerRepository repository = null;
+
+    private Repositories() {
+    }
+
+    public static SchedulerRepository get() {
+        SchedulerRepository r = repository;
+        if (r == null) {
+            synchronized (Repositories.class) {
+                r = repository;
+                if (r == null) {
+                    r = create(System.getenv("Storage"));
+                    repository = r;
+                }
+            }
+        }
+        return r;
+    }
+
+    public static void use(SchedulerRepository r) {
+        repository = r;
+    }
+
+    // closes the engine if one was created, flushing anything it still buffers
+    public static void shutdown() throws SQLException {
+        synchronized (Repositories.class) {
+            if (repository != null) {
+                repository.close();
+                repository = null;
+            }
+        }
+    }
+
+    // true when the current engine is the SQL Server one
+    public static boolean usesDatabase() {
+        SchedulerRepository r = get();
+        if (r instanceof TimedRepository) {
+            r = ((TimedRepository) r).getDelegate();
+        }
+        return r instanceof JdbcRepository;
+    }
+
+    // engines are wrapped in a TimedRepository so every call shows up in the stats command
+    public static SchedulerRepository create(String engine) {
+        if (engine == null || engine.isBlank() || engine.equalsIgnoreCase(JDBC)) {
+            return new TimedRepository(new JdbcRepository());
+        }
+        if (engine.equalsIgnoreCase(MEMORY)) {
+            return new TimedRepository(new InMemoryRepository());
+        }
+        throw new IllegalArgumentException("Unknown storage engine: " + engine);
+    }
+}
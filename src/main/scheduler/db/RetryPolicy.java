@@ -0,0 +1,62 @@
+package scheduler.db;
+
+import scheduler.util.Util;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Bounded exponential backoff with full jitter, used when an optimistic write loses a race.
+ *
+ * Jitter spreads competing retries out in time so a burst of reservations on the same
+ * date does not keep colliding on the same rows.
+ */
+public class RetryPolicy {
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("Attempts must be positive!");
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public static RetryPolicy fromEnvironment() {
+        return new RetryPolicy(Util.getEnvInt("ReserveMaxAttempts", 6),
+                Util.getEnvInt("ReserveBackoffMillis", 2),
+                Util.getEnvInt("ReserveMaxBackoffMillis", 100));
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    // sleeps before the given retry (attempt 1 is the first retry)
+    public void backoff(int attempt) throws SQLException {
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt, 20));
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        if (delay == 0) {
+            Thread.onSpinWait();
+            return;
+        }
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while retrying", e);
+        }
+    }
+
+    // deadlock victims and serialization failures are safe to retry from the start of the transaction
+    public static boolean isTransient(SQLException e) {
+        String state = e.getSQLState();
+        return e instanceof java.sql.SQLTransientException
+                || (state != null && state.startsWith("40"))
+                || e.getErrorCode() == 1205;
+    }
+}
@@ -0,0 +1,107 @@
+package scheduler.db;
+
+import scheduler.model.AppointmentDetail;
+import scheduler.model.AppointmentQuery;
+import scheduler.model.AvailabilityUpload;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Reservation;
+import scheduler.model.TimeSlots;
+import scheduler.model.Vaccine;
+import scheduler.model.VaccineAppointment;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.function.Consumer;
+
+/**
+ * Storage operations used by the scheduler and the model classes.
+ *
+ * Every engine must behave like the SQL schema: usernames and vaccine names are unique,
+ * availability is keyed by (date, caregiver), and a duplicate insert fails with an SQLException.
+ */
+public interface SchedulerRepository {
+
+    // patients
+    boolean patientExists(String username) throws SQLException;
+
+    void savePatient(Patient patient) throws SQLException;
+
+    // returns the stored credentials for the username, or null if there is no such patient
+    Patient getPatient(String username) throws SQLException;
+
+    int getPatientId(String username, byte[] salt, byte[] hash) throws SQLException;
+
+    // caregivers
+    boolean caregiverExists(String username) throws SQLException;
+
+    void saveCaregiver(Caregiver caregiver) throws SQLException;
+
+    // returns the stored credentials for the username, or null if there is no such caregiver
+    Caregiver getCaregiver(String username) throws SQLException;
+
+    int getCaregiverId(String username, byte[] salt, byte[] hash) throws SQLException;
+
+    // availability
+    void uploadAvailability(String caregiverUsername, Date date) throws SQLException;
+
+    // adds every date in one go; dates the caregiver already has are reported as conflicts
+    // instead of failing the whole upload
+    AvailabilityUpload uploadAvailability(String caregiverUsername, List<Date> dates) throws SQLException;
+
+    // usernames of the caregivers still free on the date, ordered by username
+    List<String> getAvailableCaregivers(Date date) throws SQLException;
+
+    // the free time slots (a TimeSlots bit mask) of each caregiver with any left on the date, by username
+    SortedMap<String, Long> getFreeSlots(Date date) throws SQLException;
+
+    // number of caregivers still free on each day from start to end inclusive, in date order
+    SortedMap<Date, Integer> countAvailableCaregivers(Date start, Date end) throws SQLException;
+
+    // vaccines
+    List<Vaccine> getVaccines() throws SQLException;
+
+    // returns null if there is no vaccine with that name
+    Vaccine getVaccine(String vaccineName) throws SQLException;
+
+    void saveVaccine(Vaccine vaccine) throws SQLException;
+
+    // adds (or with a negative change, removes) doses; fails with IllegalArgumentException
+    // for an unknown vaccine, or rather than letting the count go below zero
+    void addDoses(String vaccineName, int change) throws SQLException;
+
+    // applies a change per vaccine in one batch, creating vaccines that do not exist yet; returns
+    // the changes that were refused (vaccine name -> reason), all others are applied
+    Map<String, String> importDoses(Map<String, Integer> changes) throws SQLException;
+
+    // appointments
+
+    // books the slot of the day (TimeSlots.ANY for the earliest one a caregiver has free)
+    Reservation reserve(int patientId, Date date, int slot, String vaccineName) throws SQLException;
+
+    default Reservation reserve(int patientId, Date date, String vaccineName) throws SQLException {
+        return reserve(patientId, date, TimeSlots.ANY, vaccineName);
+    }
+
+    void saveAppointment(VaccineAppointment appointment) throws SQLException;
+
+    // both return false when the appointment does not exist or does not belong to the user
+    boolean cancelPatientAppointment(int appointmentId, int patientId) throws SQLException;
+
+    boolean cancelCaregiverAppointment(int appointmentId, int caregiverId) throws SQLException;
+
+    List<AppointmentDetail> getPatientAppointments(int patientId) throws SQLException;
+
+    List<AppointmentDetail> getCaregiverAppointments(int caregiverId) throws SQLException;
+
+    // hand each appointment of the page to the sink as it is read, in id order; return how many there were
+    int streamPatientAppointments(int patientId, AppointmentQuery query, Consumer<AppointmentDetail> sink) throws SQLException;
+
+    int streamCaregiverAppointments(int caregiverId, AppointmentQuery query, Consumer<AppointmentDetail> sink) throws SQLException;
+
+    // persists anything still buffered and releases the engine's resources
+    void close() throws SQLException;
+}
@@ -0,0 +1,175 @@
+package scheduler.db;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Brings the database schema up to the version the code expects.
+ *
+ * Migrations are the SQL scripts listed in MIGRATIONS, applied in order. Each one runs in its
+ * own transaction together with its row in SchemaVersion, so a failed script leaves nothing
+ * half applied and is retried on the next start. Scripts are split into batches on lines that
+ * only say GO, like in SQL Server tools. An application lock keeps two processes starting at
+ * the same time from migrating concurrently. A script whose contents changed after it was
+ * applied is reported but not re-run: fixes go in a new version.
+ */
+public class SchemaMigrator {
+
+    // version -> script, in order; add new scripts at the end with the next version number
+    private static final String[] MIGRATIONS = {
+            "V1__baseline.sql",
+            "V2__hot_query_indexes.sql",
+            "V3__time_slots.sql",
+            "V4__journal_replay.sql",
+            "V5__availability_slots_index.sql",
+    };
+
+    // the resources folder sits inside the source root, so it is part of the resource path
+    private static final String[] SCRIPT_DIRECTORIES = {"/resources/db/migration/", "/db/migration/"};
+
+    // returns the number of scripts applied
+    public int migrate() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con;
+        try {
+            con = cm.createConnection();
+        } catch (SQLException e) {
+            throw new SQLException("Could not connect to the database to check the schema", e);
+        }
+
+        try (Statement statement = con.createStatement()) {
+            // a negative result means the lock timed out or was refused, so give up instead of racing
+            statement.execute("DECLARE @r INT; EXEC @r = sp_getapplock @Resource = 'SchemaMigrator', " +
+                    "@LockMode = 'Exclusive', @LockOwner = 'Session', @LockTimeout = 60000; " +
+                    "IF @r < 0 THROW 50000, 'schema lock not acquired', 1;");
+            try {
+                statement.execute("IF OBJECT_ID('SchemaVersion', 'U') IS NULL CREATE TABLE SchemaVersion (" +
+                        "version INT PRIMARY KEY, script VARCHAR(255) NOT NULL, checksum BIGINT NOT NULL, " +
+                        "appliedAt DATETIME2 NOT NULL DEFAULT SYSUTCDATETIME())");
+                Map<Integer, Long> applied = appliedVersions(con);
+
+                int count = 0;
+                for (int i = 0; i < MIGRATIONS.length; i++) {
+                    int version = i + 1;
+                    String script = MIGRATIONS[i];
+                    String sql = readScript(script);
+                    long checksum = checksum(sql);
+                    if (applied.containsKey(version)) {
+                        if (applied.get(version) != checksum) {
+                            System.out.println("Schema migration " + script + " changed after it was applied, leaving it as it is");
+                        }
+                        continue;
+                    }
+                    apply(con, version, script, sql, checksum);
+                    System.out.println("Applied schema migration " + script);
+                    count++;
+                }
+                return count;
+            } finally {
+                statement.execute("EXEC sp_releaseapplock @Resource = 'SchemaMigrator', @LockOwner = 'Session'");
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private Map<Integer, Long> appliedVersions(Connection con) throws SQLException {
+        Map<Integer, Long> applied = new HashMap<>();
+        try (PreparedStatement statement = con.prepareStatement("SELECT version, checksum FROM SchemaVersion");
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                applied.put(resultSet.getInt("version"), resultSet.getLong("checksum"));
+            }
+        }
+        return applied;
+    }
+
+    private void apply(Connection con, int version, String script, String sql, long checksum) throws SQLException {
+        String recordVersion = "INSERT INTO SchemaVersion (version, script, checksum) VALUES (?, ?, ?)";
+        try {
+            con.setAutoCommit(false);
+            try (Statement statement = con.createStatement()) {
+                for (String batch : batches(sql)) {
+                    statement.execute(batch);
+                }
+            }
+            try (PreparedStatement statement = con.prepareStatement(recordVersion)) {
+                statement.setInt(1, version);
+                statement.setString(2, script);
+                statement.setLong(3, checksum);
+                statement.executeUpdate();
+            }
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw new SQLException("Schema migration " + script + " failed: " + e.getMessage(), e.getSQLState(), e);
+        } finally {
+            con.setAutoCommit(true);
+        }
+    }
+
+    private static List<String> batches(String sql) {
+        List<String> batches = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (String line : sql.split("\\R")) {
+            if (line.trim().equalsIgnoreCase("GO")) {
+                addBatch(batches, current);
+                current.setLength(0);
+            } else {
+                current.append(line).append('\n');
+            }
+        }
+        addBatch(batches, current);
+        return batches;
+    }
+
+    // skips batches with nothing but comments and blank lines
+    private static void addBatch(List<String> batches, StringBuilder batch) {
+        for (String line : batch.toString().split("\n")) {
+            String trimmed = line.trim();
+            if (!trimmed.isEmpty() && !trimmed.startsWith("--")) {
+                batches.add(batch.toString());
+                return;
+            }
+        }
+    }
+
+    private static String readScript(String script) throws SQLException {
+        for (String directory : SCRIPT_DIRECTORIES) {
+            InputStream in = SchemaMigrator.class.getResourceAsStream(directory + script);
+            if (in == null) {
+                continue;
+            }
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                StringBuilder sql = new StringBuilder();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    sql.append(line).append('\n');
+                }
+                return sql.toString();
+            } catch (IOException e) {
+                throw new SQLException("Could not read schema migration " + script, e);
+            }
+        }
+        throw new SQLException("Schema migration " + script + " is not on the classpath");
+    }
+
+    private static long checksum(String sql) {
+        CRC32 crc = new CRC32();
+        crc.update(sql.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,341 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+import scheduler.util.Util;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Optional JDBC tracing for connections handed out by ConnectionManager.
+ *
+ * When SqlTrace is on, connections are wrapped so that every prepared statement records its SQL,
+ * bind values, time (from execute until its result set is closed), rows fetched or updated,
+ * and any error. Times go to the "statement" table of Metrics, the last SqlTraceBuffer
+ * statements are kept in a ring buffer for the stats sql command, and statements slower than
+ * SlowQueryMillis or that failed are appended to the SlowQueryLog file. Binary values, such as
+ * password salts and hashes, are never written out, only their length.
+ *
+ * Tracing costs two proxy hops and a clock read per call, with no locking outside the slow
+ * log, so it can stay on in production. When it is off connections are not wrapped at all.
+ */
+public final class SqlTracer {
+
+    private static final boolean enabled = isOn(System.getenv("SqlTrace"));
+    private static final long slowNanos = TimeUnit.MILLISECONDS.toNanos(Util.getEnvInt("SlowQueryMillis", 500));
+    private static final String slowLogPath = System.getenv("SlowQueryLog") != null
+            ? System.getenv("SlowQueryLog") : "slow-queries.log";
+    private static final int maxBindLength = 64;
+
+    private static final AtomicReferenceArray<Trace> recent =
+            new AtomicReferenceArray<>(Math.max(1, Util.getEnvInt("SqlTraceBuffer", 256)));
+    private static final AtomicLong traced = new AtomicLong();
+    private static PrintWriter slowLog = null;
+
+    private SqlTracer() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static Connection wrap(Connection connection) {
+        if (!enabled || connection == null) {
+            return connection;
+        }
+        return (Connection) Proxy.newProxyInstance(SqlTracer.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new TracingConnection(connection));
+    }
+
+    // the most recent statements, oldest first
+    public static List<String> recent() {
+        List<String> lines = new ArrayList<>();
+        long last = traced.get();
+        for (long i = Math.max(0, last - recent.length()); i < last; i++) {
+            Trace trace = recent.get((int) (i % recent.length()));
+            if (trace != null) {
+                lines.add(trace.toString());
+            }
+        }
+        return lines;
+    }
+
+    private static void finish(Trace trace) {
+        Metrics.statement(trace.sql).record(trace.elapsedNanos);
+        recent.set((int) (traced.getAndIncrement() % recent.length()), trace);
+        if (trace.elapsedNanos >= slowNanos || trace.error != null) {
+            writeSlow(trace);
+        }
+    }
+
+    private static synchronized void writeSlow(Trace trace) {
+        try {
+            if (slowLog == null) {
+                slowLog = new PrintWriter(new FileWriter(slowLogPath, true));
+            }
+            slowLog.println(trace);
+            slowLog.flush();
+        } catch (IOException e) {
+            System.out.println("Could not write to " + slowLogPath + ": " + e.getMessage());
+        }
+    }
+
+    private static Object redact(Object value) {
+        if (value instanceof byte[]) {
+            return "<" + ((byte[]) value).length + " bytes>";
+        }
+        if (value instanceof String && ((String) value).length() > maxBindLength) {
+            return ((String) value).substring(0, maxBindLength) + "...";
+        }
+        return value;
+    }
+
+    private static boolean isOn(String value) {
+        return value != null && (value.equalsIgnoreCase("on") || value.equalsIgnoreCase("true") || value.equals("1"));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static final class Trace {
+        private final long at = System.currentTimeMillis();
+        private final String sql;
+        private final String binds;
+        private final int batchSize;
+        private long elapsedNanos;
+        private long rows;
+        private String error;
+
+        private Trace(String sql, Object[] binds, int batchSize) {
+            this.sql = sql;
+            this.binds = Arrays.toString(binds);
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public String toString() {
+            return Instant.ofEpochMilli(at) + " " + TimeUnit.NANOSECONDS.toMicros(elapsedNanos) + "us"
+                    + " rows=" + rows + (batchSize > 0 ? " batch=" + batchSize : "")
+                    + " sql=\"" + sql + "\" binds=" + binds + (error == null ? "" : " error=\"" + error + "\"");
+        }
+    }
+
+    private static final class TracingConnection implements InvocationHandler {
+        private final Connection connection;
+
+        private TracingConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            }
+            if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            Object result = SqlTracer.invoke(connection, method, args);
+            if (name.equals("prepareStatement")) {
+                return Proxy.newProxyInstance(SqlTracer.class.getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                        new TracingStatement((PreparedStatement) result, (String) args[0]));
+            }
+            return result;
+        }
+    }
+
+    private static final class TracingStatement implements InvocationHandler {
+        private final PreparedStatement statement;
+        private final String sql;
+        private Object[] binds = new Object[4];
+        private int bindCount = 0;
+        private int batchSize = 0;
+        // a query whose result set is still open
+        private Trace open = null;
+        private long openStart;
+
+        private TracingStatement(PreparedStatement statement, String sql) {
+            this.statement = statement;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                bind((Integer) args[0], args[1]);
+                return SqlTracer.invoke(statement, method, args);
+            }
+            switch (name) {
+                case "clearParameters":
+                    Arrays.fill(binds, null);
+                    bindCount = 0;
+                    return SqlTracer.invoke(statement, method, args);
+                case "addBatch":
+                    batchSize++;
+                    return SqlTracer.invoke(statement, method, args);
+                case "clearBatch":
+                    batchSize = 0;
+                    return SqlTracer.invoke(statement, method, args);
+                case "executeQuery":
+                    return query(method, args);
+                case "execute":
+                case "executeUpdate":
+                case "executeLargeUpdate":
+                case "executeBatch":
+                case "executeLargeBatch":
+                    return update(method, args);
+                case "close":
+                    closeQuery();
+                    return SqlTracer.invoke(statement, method, args);
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return SqlTracer.invoke(statement, method, args);
+            }
+        }
+
+        private void bind(int index, Object value) {
+            if (index > binds.length) {
+                binds = Arrays.copyOf(binds, Math.max(index, binds.length * 2));
+            }
+            binds[index - 1] = redact(value);
+            bindCount = Math.max(bindCount, index);
+        }
+
+        private Trace start() {
+            closeQuery();
+            return new Trace(sql, Arrays.copyOf(binds, bindCount), batchSize);
+        }
+
+        private Object query(Method method, Object[] args) throws Throwable {
+            Trace trace = start();
+            long start = System.nanoTime();
+            ResultSet resultSet;
+            try {
+                resultSet = (ResultSet) SqlTracer.invoke(statement, method, args);
+            } catch (Throwable e) {
+                trace.error = e.getMessage();
+                trace.elapsedNanos = System.nanoTime() - start;
+                finish(trace);
+                throw e;
+            }
+            open = trace;
+            openStart = start;
+            return Proxy.newProxyInstance(SqlTracer.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                    new TracingResultSet(resultSet, this, trace));
+        }
+
+        private Object update(Method method, Object[] args) throws Throwable {
+            Trace trace = start();
+            long start = System.nanoTime();
+            try {
+                Object result = SqlTracer.invoke(statement, method, args);
+                trace.rows = affected(result);
+                return result;
+            } catch (Throwable e) {
+                trace.error = e.getMessage();
+                throw e;
+            } finally {
+                if (method.getName().endsWith("Batch")) {
+                    batchSize = 0;
+                }
+                trace.elapsedNanos = System.nanoTime() - start;
+                finish(trace);
+            }
+        }
+
+        // ends the trace of the open query, if it is the given one
+        private void closeQuery(Trace trace) {
+            if (open == trace) {
+                closeQuery();
+            }
+        }
+
+        private void closeQuery() {
+            if (open != null) {
+                open.elapsedNanos = System.nanoTime() - openStart;
+                finish(open);
+                open = null;
+            }
+        }
+
+        private static long affected(Object result) {
+            if (result instanceof Integer || result instanceof Long) {
+                return Math.max(0, ((Number) result).longValue());
+            }
+            long total = 0;
+            if (result instanceof int[]) {
+                for (int count : (int[]) result) {
+                    total += Math.max(0, count);
+                }
+            } else if (result instanceof long[]) {
+                for (long count : (long[]) result) {
+                    total += Math.max(0, count);
+                }
+            }
+            return total;
+        }
+    }
+
+    private static final class TracingResultSet implements InvocationHandler {
+        private final ResultSet resultSet;
+        private final TracingStatement owner;
+        private final Trace trace;
+
+        private TracingResultSet(ResultSet resultSet, TracingStatement owner, Trace trace) {
+            this.resultSet = resultSet;
+            this.owner = owner;
+            this.trace = trace;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("next")) {
+                Object hasRow = SqlTracer.invoke(resultSet, method, args);
+                if ((Boolean) hasRow) {
+                    trace.rows++;
+                }
+                return hasRow;
+            }
+            if (name.equals("close")) {
+                try {
+                    return SqlTracer.invoke(resultSet, method, args);
+                } finally {
+                    owner.closeQuery(trace);
+                }
+            }
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            }
+            if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            return SqlTracer.invoke(resultSet, method, args);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package scheduler.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prepared statements of one pooled connection, keyed by SQL text and kept in LRU order.
+ *
+ * Statements are handed out as proxies whose close() only clears the parameters and puts the
+ * statement back, so the next prepareStatement with the same SQL on this connection skips the
+ * parse. A statement that is still checked out is never handed out twice; the second caller
+ * gets a plain, uncached statement instead. The least recently used statement is closed once
+ * the cache is full, and everything is closed with the connection.
+ *
+ * A connection is used by one borrower at a time, so the cache itself is not synchronized.
+ */
+class StatementCache {
+
+    private final Connection physical;
+    private final int capacity;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final LinkedHashMap<Key, Cached> statements;
+
+    StatementCache(Connection physical, int capacity, AtomicLong hits, AtomicLong misses) {
+        this.physical = physical;
+        this.capacity = capacity;
+        this.hits = hits;
+        this.misses = misses;
+        this.statements = new LinkedHashMap<Key, Cached>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Cached> eldest) {
+                if (size() <= StatementCache.this.capacity) {
+                    return false;
+                }
+                Cached cached = eldest.getValue();
+                if (cached.checkedOut) {
+                    // closed when its borrower is done with it
+                    cached.evicted = true;
+                } else {
+                    closeQuietly(cached.statement);
+                }
+                return true;
+            }
+        };
+    }
+
+    // autoGeneratedKeys is -1 for prepareStatement(sql)
+    PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        if (capacity <= 0) {
+            return create(sql, autoGeneratedKeys);
+        }
+        Key key = new Key(sql, autoGeneratedKeys);
+        Cached cached = statements.get(key);
+        if (cached != null && cached.checkedOut) {
+            misses.incrementAndGet();
+            return create(sql, autoGeneratedKeys);
+        }
+        if (cached != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            cached = new Cached(create(sql, autoGeneratedKeys));
+            statements.put(key, cached);
+        }
+        cached.checkedOut = true;
+        return (PreparedStatement) Proxy.newProxyInstance(StatementCache.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, new CheckedOutStatement(cached));
+    }
+
+    void closeAll() {
+        List<Cached> all = new ArrayList<>(statements.values());
+        statements.clear();
+        for (Cached cached : all) {
+            closeQuietly(cached.statement);
+        }
+    }
+
+    private PreparedStatement create(String sql, int autoGeneratedKeys) throws SQLException {
+        return autoGeneratedKeys < 0 ? physical.prepareStatement(sql) : physical.prepareStatement(sql, autoGeneratedKeys);
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // the statement is being discarded anyway
+        }
+    }
+
+    private static final class Key {
+        private final String sql;
+        private final int autoGeneratedKeys;
+
+        private Key(String sql, int autoGeneratedKeys) {
+            this.sql = sql;
+            this.autoGeneratedKeys = autoGeneratedKeys;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return autoGeneratedKeys == other.autoGeneratedKeys && sql.equals(other.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return sql.hashCode() * 31 + autoGeneratedKeys;
+        }
+    }
+
+    private static final class Cached {
+        private final PreparedStatement statement;
+        private boolean checkedOut = false;
+        private boolean evicted = false;
+
+        private Cached(PreparedStatement statement) {
+            this.statement = statement;
+        }
+    }
+
+    private final class CheckedOutStatement implements InvocationHandler {
+        private final Cached cached;
+        private boolean returned = false;
+
+        private CheckedOutStatement(Cached cached) {
+            this.cached = cached;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                if (!returned) {
+                    returned = true;
+                    giveBack();
+                }
+                return null;
+            }
+            if (name.equals("isClosed")) {
+                return returned || cached.statement.isClosed();
+            }
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            }
+            if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            if (returned) {
+                throw new SQLException("Statement has already been closed");
+            }
+            try {
+                return method.invoke(cached.statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private void giveBack() {
+            cached.checkedOut = false;
+            if (cached.evicted) {
+                closeQuietly(cached.statement);
+                return;
+            }
+            try {
+                cached.statement.clearParameters();
+                cached.statement.clearBatch();
+            } catch (SQLException e) {
+                // do not hand out a statement in an unknown state again
+                statements.values().remove(cached);
+                closeQuietly(cached.statement);
+            }
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package scheduler.db;
+
+import scheduler.metrics.LatencyRecorder;
+import scheduler.metrics.Metrics;
+import scheduler.model.AppointmentDetail;
+import scheduler.model.AppointmentQuery;
+import scheduler.model.AvailabilityUpload;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Reservation;
+import scheduler.model.Vaccine;
+import scheduler.model.VaccineAppointment;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.function.Consumer;
+
+/**
+ * Wraps a storage engine and records the latency of every call in Metrics, under the
+ * method's name. Failed calls are recorded too.
+ */
+public class TimedRepository implements SchedulerRepository {
+
+    private final SchedulerRepository delegate;
+
+    private final LatencyRecorder patientExists = Metrics.database("patientExists");
+    private final LatencyRecorder savePatient = Metrics.database("savePatient");
+    private final LatencyRecorder getPatient = Metrics.database("getPatient");
+    private final LatencyRecorder getPatientId = Metrics.database("getPatientId");
+    private final LatencyRecorder caregiverExists = Metrics.database("caregiverExists");
+    private final LatencyRecorder saveCaregiver = Metrics.database("saveCaregiver");
+    private final LatencyRecorder getCaregiver = Metrics.database("getCaregiver");
+    private final LatencyRecorder getCaregiverId = Metrics.database("getCaregiverId");
+    private final LatencyRecorder uploadAvailability = Metrics.database("uploadAvailability");
+    private final LatencyRecorder uploadAvailabilityBatch = Metrics.database("uploadAvailabilityBatch");
+    private final LatencyRecorder getAvailableCaregivers = Metrics.database("getAvailableCaregivers");
+    private final LatencyRecorder getFreeSlots = Metrics.database("getFreeSlots");
+    private final LatencyRecorder countAvailableCaregivers = Metrics.database("countAvailableCaregivers");
+    private final LatencyRecorder getVaccines = Metrics.database("getVaccines");
+    private final LatencyRecorder getVaccine = Metrics.database("getVaccine");
+    private final LatencyRecorder saveVaccine = Metrics.database("saveVaccine");
+    private final LatencyRecorder addDoses = Metrics.database("addDoses");
+    private final LatencyRecorder importDoses = Metrics.database("importDoses");
+    private final LatencyRecorder reserve = Metrics.database("reserve");
+    private final LatencyRecorder saveAppointment = Metrics.database("saveAppointment");
+    private final LatencyRecorder cancelPatientAppointment = Metrics.database("cancelPatientAppointment");
+    private final LatencyRecorder cancelCaregiverAppointment = Metrics.database("cancelCaregiverAppointment");
+    private final LatencyRecorder getPatientAppointments = Metrics.database("getPatientAppointments");
+    private final LatencyRecorder getCaregiverAppointments = Metrics.database("getCaregiverAppointments");
+    private final LatencyRecorder streamPatientAppointments = Metrics.database("streamPatientAppointments");
+    private final LatencyRecorder streamCaregiverAppointments = Metrics.database("streamCaregiverAppointments");
+
+    public TimedRepository(SchedulerRepository delegate) {
+        this.delegate = delegate;
+    }
+
+    public SchedulerRepository getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public boolean patientExists(String username) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return delegate.patientExists(username);
+        } finally {
+            patientExists.recordSince(start);
+        }
+    }
+
+    @Override
+    public void savePatient(Patient patient) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            delegate.savePatient(patient);
+        } finally {
+            savePatient.recordSince(start);
+        }
+    }
+
+    @Override
+    public Patient getPatient(String username) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getPatient(username);
+        } finally {
+            getPatient.recordSince(start);
+        }
+    }
+
+    @Override
+    public int getPatientId(String username, byte[] salt, byte[] hash) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getPatientId(username, salt, hash);
+        } finally {
+            getPatientId.recordSince(start);
+        }
+    }
+
+    @Override
+    public boolean caregiverExists(String username) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return delegate.caregiverExists(username);
+        } finally {
+            caregiverExists.recordSince(start);
+        }
+    }
+
+    @Override
+    public void saveCaregiver(Caregiver caregiver) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            delegate.saveCaregiver(caregiver);
+        } finally {
+            saveCaregiver.recordSince(start);
+        }
+    }
+
+    @Override
+    public Caregiver getCaregiver(String username) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getCaregiver(username);
+        } finally {
+            getCaregiver.recordSince(start);
+        }
+    }
+
+    @Override
+    public int getCaregiverId(String username, byte[] salt, byte[] hash) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getCaregiverId(username, salt, hash);
+        } finally {
+            getCaregiverId.recordSince(start);
+        }
+    }
+
+    @Override
+    public void uploadAvailability(String caregiverUsername, Date date) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            delegate.uploadAvailability(caregiverUsername, date);
+        } finally {
+            uploadAvailability.recordSince(start);
+        }
+    }
+
+    @Override
+    public AvailabilityUpload uploadAvailability(String caregiverUsername, List<Date> dates) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return delegate.uploadAvailability(caregiverUsername, dates);
+        } finally {
+            uploadAvailabilityBatch.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<String> getAvailableCaregivers(Date date) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getAvailableCaregivers(date);
+        } finally {
+            getAvailableCaregivers.recordSince(start);
+        }
+    }
+
+    @Override
+    public SortedMap<String, Long> getFreeSlots(Date date) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getFreeSlots(date);
+        } finally {
+            getFreeSlots.recordSince(start);
+        }
+    }
+
+    @Override
+    public SortedMap<Date, Integer> countAvailableCaregivers(Date start, Date end) throws SQLException {
+        long begin = System.nanoTime();
+        try {
+            return delegate.countAvailableCaregivers(start, end);
+        } finally {
+            countAvailableCaregivers.recordSince(begin);
+        }
+    }
+
+    @Override
+    public List<Vaccine> getVaccines() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getVaccines();
+        } finally {
+            getVaccines.recordSince(start);
+        }
+    }
+
+    @Override
+    public Vaccine getVaccine(String vaccineName) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getVaccine(vaccineName);
+        } finally {
+            getVaccine.recordSince(start);
+        }
+    }
+
+    @Override
+    public void saveVaccine(Vaccine vaccine) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            delegate.saveVaccine(vaccine);
+        } finally {
+            saveVaccine.recordSince(start);
+        }
+    }
+
+    @Override
+    public void addDoses(String vaccineName, int change) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            delegate.addDoses(vaccineName, change);
+        } finally {
+            addDoses.recordSince(start);
+        }
+    }
+
+    @Override
+    public Map<String, String> importDoses(Map<String, Integer> changes) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return delegate.importDoses(changes);
+        } finally {
+            importDoses.recordSince(start);
+        }
+    }
+
+    @Override
+    public Reservation reserve(int patientId, Date date, int slot, String vaccineName) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return delegate.reserve(patientId, date, slot, vaccineName);
+        } finally {
+            reserve.recordSince(start);
+        }
+    }
+
+    @Override
+    public void saveAppointment(VaccineAppointment appointment) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            delegate.saveAppointment(appointment);
+        } finally {
+            saveAppointment.recordSince(start);
+        }
+    }
+
+    @Override
+    public boolean cancelPatientAppointment(int appointmentId, int patientId) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return delegate.cancelPatientAppointment(appointmentId, patientId);
+        } finally {
+            cancelPatientAppointment.recordSince(start);
+        }
+    }
+
+    @Override
+    public boolean cancelCaregiverAppointment(int appointmentId, int caregiverId) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return delegate.cancelCaregiverAppointment(appointmentId, caregiverId);
+        } finally {
+            cancelCaregiverAppointment.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<AppointmentDetail> getPatientAppointments(int patientId) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getPatientAppointments(patientId);
+        } finally {
+            getPatientAppointments.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<AppointmentDetail> getCaregiverAppointments(int caregiverId) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getCaregiverAppointments(caregiverId);
+        } finally {
+            getCaregiverAppointments.recordSince(start);
+        }
+    }
+
+    @Override
+    public int streamPatientAppointments(int patientId, AppointmentQuery query, Consumer<AppointmentDetail> sink) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return delegate.streamPatientAppointments(patientId, query, sink);
+        } finally {
+            streamPatientAppointments.recordSince(start);
+        }
+    }
+
+    @Override
+    public int streamCaregiverAppointments(int caregiverId, AppointmentQuery query, Consumer<AppointmentDetail> sink) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return delegate.streamCaregiverAppointments(caregiverId, query, sink);
+        } finally {
+            streamCaregiverAppointments.recordSince(start);
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        delegate.close();
+    }
+}
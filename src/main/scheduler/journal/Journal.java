@@ -0,0 +1,281 @@
+package scheduler.journal;
+
+import scheduler.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only file of JournalEntry records, memory-mapped so an append is a copy into the
+ * page cache rather than a write call.
+ *
+ * The file starts with a 64 byte header: a magic number, the journal's id (a random UUID, so
+ * entries from two journals never look alike), the sequence before the first record and the
+ * last sequence replayed. Records follow as [length][crc32][sequence][entry], with a zero
+ * length marking the end; a record whose checksum does not match (a write torn by a crash) is
+ * treated as the end too.
+ *
+ * An append returns once its record is on disk. Syncs are batched: the thread that forces the
+ * file waits JournalSyncMillis first and forces every record appended up to then, and threads
+ * whose record was covered return without forcing again. The file is locked while open, so only
+ * one process writes to it.
+ */
+public class Journal {
+
+    private static final int MAGIC = 0x56534A31;
+    private static final int HEADER_SIZE = 64;
+    private static final int ID_OFFSET = 8;
+    private static final int BASE_OFFSET = 24;
+    private static final int REPLAYED_OFFSET = 32;
+    private static final int RECORD_HEADER = 8;
+    private static final int GROWTH = 1 << 20;
+
+    private final FileChannel channel;
+    private final FileLock lock;
+    private final String id;
+    private final long syncMillis;
+    private final LongAdder appends = Metrics.counter("journal.appends");
+    private final LongAdder syncs = Metrics.counter("journal.syncs");
+
+    // guarded by this
+    private MappedByteBuffer buffer;
+    private int position;
+    private long lastSequence;
+    private long replayed;
+
+    // guarded by syncLock: the end of what is known to be on disk, and whether a force is running
+    private final Object syncLock = new Object();
+    private int synced;
+    private boolean syncing;
+
+    private Journal(FileChannel channel, FileLock lock, MappedByteBuffer buffer, long syncMillis) throws IOException {
+        this.channel = channel;
+        this.lock = lock;
+        this.buffer = buffer;
+        this.syncMillis = syncMillis;
+        this.id = new UUID(buffer.getLong(ID_OFFSET), buffer.getLong(ID_OFFSET + 8)).toString();
+        this.replayed = buffer.getLong(REPLAYED_OFFSET);
+        this.lastSequence = buffer.getLong(BASE_OFFSET);
+        this.position = HEADER_SIZE;
+        for (JournalEntry entry = read(position, lastSequence + 1); entry != null; entry = read(position, lastSequence + 1)) {
+            position += RECORD_HEADER + buffer.getInt(position);
+            lastSequence = entry.getSequence();
+        }
+        this.synced = position;
+    }
+
+    public static Journal open(Path path, long syncMillis) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) {
+                throw new IOException(path + " is in use by another process");
+            }
+            boolean created = channel.size() == 0;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, roundUp(Math.max(channel.size(), HEADER_SIZE)));
+            if (created) {
+                UUID id = UUID.randomUUID();
+                buffer.putInt(0, MAGIC);
+                buffer.putLong(ID_OFFSET, id.getMostSignificantBits());
+                buffer.putLong(ID_OFFSET + 8, id.getLeastSignificantBits());
+                buffer.force();
+            } else if (buffer.getInt(0) != MAGIC) {
+                throw new IOException(path + " is not a journal");
+            }
+            return new Journal(channel, lock, buffer, syncMillis);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    // appends the entry and waits until it is on disk; returns its sequence number
+    public long append(JournalEntry entry) throws IOException {
+        byte[] payload = entry.encode();
+        byte[] record = new byte[8 + payload.length];
+        long sequence;
+        int end;
+        synchronized (this) {
+            sequence = lastSequence + 1;
+            for (int i = 0; i < 8; i++) {
+                record[i] = (byte) (sequence >>> (56 - 8 * i));
+            }
+            System.arraycopy(payload, 0, record, 8, payload.length);
+            CRC32 crc = new CRC32();
+            crc.update(record);
+
+            int start = position;
+            end = start + RECORD_HEADER + record.length;
+            ensureCapacity(end + 4);
+            buffer.putInt(start + 4, (int) crc.getValue());
+            ByteBuffer target = buffer.duplicate();
+            target.position(start + RECORD_HEADER);
+            target.put(record);
+            buffer.putInt(end, 0);
+            // the length goes in last, so a record is never read before its bytes are there
+            buffer.putInt(start, record.length);
+            position = end;
+            lastSequence = sequence;
+        }
+        sync(end);
+        appends.increment();
+        return sequence;
+    }
+
+    // entries not replayed yet, oldest first
+    public synchronized List<JournalEntry> pending() throws IOException {
+        List<JournalEntry> entries = new ArrayList<>();
+        long sequence = buffer.getLong(BASE_OFFSET) + 1;
+        for (int at = HEADER_SIZE; at < position; at += RECORD_HEADER + buffer.getInt(at)) {
+            JournalEntry entry = read(at, sequence++);
+            if (entry == null) {
+                throw new IOException("Journal record " + (sequence - 1) + " is damaged");
+            }
+            if (entry.getSequence() > replayed) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    public synchronized long pendingCount() {
+        return lastSequence - replayed;
+    }
+
+    // records that every entry up to the sequence has reached the database
+    public synchronized void markReplayed(long sequence) {
+        replayed = Math.max(replayed, sequence);
+        buffer.putLong(REPLAYED_OFFSET, replayed);
+        buffer.force();
+    }
+
+    // drops the records once all of them are replayed, so the file does not grow forever;
+    // sequence numbers carry on from the last one
+    public void compact() {
+        synchronized (syncLock) {
+            synchronized (this) {
+                // a force in progress would mark positions of the old records as synced
+                if (syncing || lastSequence != replayed || position == HEADER_SIZE) {
+                    return;
+                }
+                buffer.putLong(BASE_OFFSET, lastSequence);
+                buffer.putInt(HEADER_SIZE, 0);
+                buffer.force();
+                position = HEADER_SIZE;
+                synced = HEADER_SIZE;
+            }
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        buffer.force();
+        lock.release();
+        channel.close();
+    }
+
+    // group commit: one thread forces everything appended so far while the others wait for it
+    private void sync(int end) throws IOException {
+        synchronized (syncLock) {
+            while (synced < end && syncing) {
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while syncing the journal", e);
+                }
+            }
+            if (synced >= end) {
+                return;
+            }
+            syncing = true;
+        }
+        int forcedTo = -1;
+        try {
+            if (syncMillis > 0) {
+                Thread.sleep(syncMillis);
+            }
+            int upTo;
+            MappedByteBuffer current;
+            synchronized (this) {
+                upTo = position;
+                current = buffer;
+            }
+            // only the dirty pages are written, so forcing the whole mapping costs no more
+            current.force();
+            forcedTo = upTo;
+            syncs.increment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while syncing the journal", e);
+        } finally {
+            synchronized (syncLock) {
+                synced = Math.max(synced, forcedTo);
+                syncing = false;
+                syncLock.notifyAll();
+            }
+        }
+    }
+
+    // the record at the offset if it is intact and has the expected sequence, else null
+    private JournalEntry read(int at, long expectedSequence) throws IOException {
+        if (at + RECORD_HEADER > buffer.capacity()) {
+            return null;
+        }
+        int length = buffer.getInt(at);
+        if (length <= 8 || at + RECORD_HEADER + length > buffer.capacity()) {
+            return null;
+        }
+        byte[] record = new byte[length];
+        ByteBuffer source = buffer.duplicate();
+        source.position(at + RECORD_HEADER);
+        source.get(record);
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        if ((int) crc.getValue() != buffer.getInt(at + 4)) {
+            return null;
+        }
+        long sequence = 0;
+        for (int i = 0; i < 8; i++) {
+            sequence = (sequence << 8) | (record[i] & 0xFF);
+        }
+        if (sequence != expectedSequence) {
+            return null;
+        }
+        byte[] payload = new byte[length - 8];
+        System.arraycopy(record, 8, payload, 0, payload.length);
+        return JournalEntry.decode(sequence, payload);
+    }
+
+    // maps a larger region of the file; what is mapped so far is forced first
+    private void ensureCapacity(int needed) throws IOException {
+        if (needed <= buffer.capacity()) {
+            return;
+        }
+        buffer.force();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, roundUp(Math.max(needed, 2L * buffer.capacity())));
+    }
+
+    private static long roundUp(long size) {
+        return (size + GROWTH - 1) / GROWTH * GROWTH;
+    }
+}
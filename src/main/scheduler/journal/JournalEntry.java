@@ -0,0 +1,195 @@
+package scheduler.journal;
+
+import scheduler.model.TimeSlots;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.Date;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One change made while the database could not be reached: a reservation, an availability
+ * upload or a dose change. Only the fields of its type are set.
+ *
+ * The sequence number is given by the Journal when the entry is appended; entries built to be
+ * appended have sequence 0.
+ */
+public final class JournalEntry {
+
+    public enum Type {
+        RESERVATION,
+        AVAILABILITY,
+        DOSES
+    }
+
+    private final long sequence;
+    private final Type type;
+    private final long recordedAt;
+    private final int patientId;
+    private final String caregiverUsername;
+    private final List<Date> dates;
+    private final int slot;
+    private final String vaccineName;
+    private final int change;
+
+    private JournalEntry(long sequence, Type type, long recordedAt, int patientId, String caregiverUsername,
+                         List<Date> dates, int slot, String vaccineName, int change) {
+        this.sequence = sequence;
+        this.type = type;
+        this.recordedAt = recordedAt;
+        this.patientId = patientId;
+        this.caregiverUsername = caregiverUsername;
+        this.dates = dates;
+        this.slot = slot;
+        this.vaccineName = vaccineName;
+        this.change = change;
+    }
+
+    // the patient booked the caregiver's slot on the date
+    public static JournalEntry reservation(int patientId, Date date, String caregiverUsername, int slot, String vaccineName) {
+        return new JournalEntry(0, Type.RESERVATION, System.currentTimeMillis(), patientId, caregiverUsername,
+                Collections.singletonList(date), slot, vaccineName, 0);
+    }
+
+    public static JournalEntry availability(String caregiverUsername, List<Date> dates) {
+        return new JournalEntry(0, Type.AVAILABILITY, System.currentTimeMillis(), 0, caregiverUsername,
+                new ArrayList<>(dates), TimeSlots.ANY, null, 0);
+    }
+
+    public static JournalEntry doses(String vaccineName, int change) {
+        return new JournalEntry(0, Type.DOSES, System.currentTimeMillis(), 0, null,
+                Collections.emptyList(), TimeSlots.ANY, vaccineName, change);
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getRecordedAt() {
+        return recordedAt;
+    }
+
+    public int getPatientId() {
+        return patientId;
+    }
+
+    public String getCaregiverUsername() {
+        return caregiverUsername;
+    }
+
+    // the reservation's date, or the uploaded dates
+    public Date getDate() {
+        return dates.get(0);
+    }
+
+    public List<Date> getDates() {
+        return Collections.unmodifiableList(dates);
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public int getChange() {
+        return change;
+    }
+
+    // type, time, then the fields of the type; the sequence is stored by the Journal
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(type.ordinal());
+            out.writeLong(recordedAt);
+            switch (type) {
+                case RESERVATION:
+                    out.writeInt(patientId);
+                    out.writeUTF(caregiverUsername);
+                    out.writeLong(getDate().toLocalDate().toEpochDay());
+                    out.writeInt(slot);
+                    out.writeUTF(vaccineName);
+                    break;
+                case AVAILABILITY:
+                    out.writeUTF(caregiverUsername);
+                    out.writeInt(dates.size());
+                    for (Date date : dates) {
+                        out.writeLong(date.toLocalDate().toEpochDay());
+                    }
+                    break;
+                default:
+                    out.writeUTF(vaccineName);
+                    out.writeInt(change);
+                    break;
+            }
+        } catch (IOException e) {
+            // a ByteArrayOutputStream does not fail
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static JournalEntry decode(long sequence, byte[] payload) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            int ordinal = in.readUnsignedByte();
+            if (ordinal >= Type.values().length) {
+                throw new IOException("Unknown journal entry type " + ordinal);
+            }
+            Type type = Type.values()[ordinal];
+            long recordedAt = in.readLong();
+            switch (type) {
+                case RESERVATION: {
+                    int patientId = in.readInt();
+                    String caregiverUsername = in.readUTF();
+                    Date date = Date.valueOf(LocalDate.ofEpochDay(in.readLong()));
+                    int slot = in.readInt();
+                    String vaccineName = in.readUTF();
+                    return new JournalEntry(sequence, type, recordedAt, patientId, caregiverUsername,
+                            Collections.singletonList(date), slot, vaccineName, 0);
+                }
+                case AVAILABILITY: {
+                    String caregiverUsername = in.readUTF();
+                    int count = in.readInt();
+                    List<Date> dates = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        dates.add(Date.valueOf(LocalDate.ofEpochDay(in.readLong())));
+                    }
+                    return new JournalEntry(sequence, type, recordedAt, 0, caregiverUsername, dates, TimeSlots.ANY, null, 0);
+                }
+                default: {
+                    String vaccineName = in.readUTF();
+                    int change = in.readInt();
+                    return new JournalEntry(sequence, type, recordedAt, 0, null,
+                            Collections.emptyList(), TimeSlots.ANY, vaccineName, change);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        String prefix = "#" + sequence + " at " + Instant.ofEpochMilli(recordedAt) + ": ";
+        switch (type) {
+            case RESERVATION:
+                return prefix + "reserve " + vaccineName + " for patient " + patientId + " with " + caregiverUsername
+                        + " on " + getDate() + (TimeSlots.configured().isWholeDay() ? "" : " at " + TimeSlots.configured().start(slot));
+            case AVAILABILITY:
+                return prefix + "availability of " + caregiverUsername + " on " + dates;
+            default:
+                return prefix + (change >= 0 ? "add " : "remove ") + Math.abs(change) + " doses of " + vaccineName;
+        }
+    }
+}
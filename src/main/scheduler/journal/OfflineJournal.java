@@ -0,0 +1,225 @@
+package scheduler.journal;
+
+import scheduler.metrics.Metrics;
+import scheduler.util.Util;
+import scheduler.waitlist.Waitlist;
+import scheduler.waitlist.WaitlistRequest;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the scheduler taking reservations, availability uploads and dose changes while the
+ * database cannot be reached, and hands them to the database once it is back.
+ *
+ * The storage engine switches to offline mode when it cannot get a connection. From then on it
+ * checks those writes against what it has in memory (the availability index and the vaccine
+ * inventory) and records them in the Journal at JournalFile instead of the database. A
+ * background thread tries the database every JournalProbeMillis; once it answers, the entries
+ * are replayed in order and the engine goes back online. Every replayed entry is recorded in the
+ * JournalReplay table in the same transaction as its changes, so an entry replayed twice (after
+ * a crash mid-replay) is applied once.
+ *
+ * Entries the database refuses, such as a slot another site booked in the meantime, are written
+ * to the JournalConflictLog file. Patients whose reservation was refused are put on the waitlist
+ * for that day.
+ *
+ * Entries left from an earlier run are replayed when the scheduler starts; until then writes
+ * keep going to the journal so they are replayed after them.
+ */
+public class OfflineJournal {
+
+    // applies one entry to the database; recovered is true for entries from an earlier run,
+    // whose changes this process never made in memory
+    public interface Applier {
+        ReplayResult apply(String journalId, JournalEntry entry, boolean recovered) throws SQLException;
+    }
+
+    public interface Probe {
+        boolean reachable();
+    }
+
+    private final Journal journal;
+    private final Applier applier;
+    private final Probe probe;
+    private final String conflictLogPath;
+    private final long recoveredThrough;
+    private final ScheduledExecutorService prober;
+    private final LongAdder replayed = Metrics.counter("journal.replayed");
+    private final LongAdder conflicts = Metrics.counter("journal.conflicts");
+    private volatile boolean offline;
+
+    public OfflineJournal(Journal journal, Applier applier, Probe probe, long probeMillis, String conflictLogPath) throws IOException {
+        this.journal = journal;
+        this.applier = applier;
+        this.probe = probe;
+        this.conflictLogPath = conflictLogPath;
+        List<JournalEntry> pending = journal.pending();
+        this.recoveredThrough = pending.isEmpty() ? 0 : pending.get(pending.size() - 1).getSequence();
+        this.offline = !pending.isEmpty();
+        this.prober = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "journal-replay");
+            t.setDaemon(true);
+            return t;
+        });
+        this.prober.scheduleWithFixedDelay(this::replayQuietly, probeMillis, probeMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // null when JournalFile is not set, which leaves offline mode off
+    public static OfflineJournal fromEnvironment(Applier applier, Probe probe) {
+        String file = System.getenv("JournalFile");
+        if (file == null || file.isBlank()) {
+            return null;
+        }
+        String conflictLog = System.getenv("JournalConflictLog");
+        try {
+            return new OfflineJournal(Journal.open(Paths.get(file), Util.getEnvInt("JournalSyncMillis", 2)), applier, probe,
+                    Util.getEnvInt("JournalProbeMillis", 5000), conflictLog != null ? conflictLog : "journal-conflicts.log");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the journal " + file, e);
+        }
+    }
+
+    public boolean isOffline() {
+        return offline;
+    }
+
+    public void goOffline() {
+        if (!offline) {
+            offline = true;
+            System.out.println("The database cannot be reached, recording changes in the journal until it is back");
+        }
+    }
+
+    // appends the entry and waits until it is on disk; returns its sequence number
+    public long record(JournalEntry entry) throws SQLException {
+        try {
+            return journal.append(entry);
+        } catch (IOException e) {
+            throw new SQLException("Could not write to the journal", e);
+        }
+    }
+
+    public long pendingCount() {
+        return journal.pendingCount();
+    }
+
+    /**
+     * Replays every entry not replayed yet, oldest first, and goes back online if none are left.
+     * Returns false if the database could not be reached or failed part way; the entries from
+     * there on are tried again on the next run.
+     */
+    public synchronized boolean replay() {
+        if (journal.pendingCount() == 0 && !offline) {
+            return true;
+        }
+        if (!probe.reachable()) {
+            return false;
+        }
+        Map<JournalEntry, String> refused = new LinkedHashMap<>();
+        List<String> report = new ArrayList<>();
+        int count = 0;
+        try {
+            List<JournalEntry> pending = journal.pending();
+            for (JournalEntry entry : pending) {
+                ReplayResult result = applier.apply(journal.getId(), entry, entry.getSequence() <= recoveredThrough);
+                if (result.getStatus() == ReplayResult.Status.CONFLICT) {
+                    conflicts.increment();
+                    if (entry.getType() == JournalEntry.Type.RESERVATION) {
+                        refused.put(entry, result.getReason());
+                    } else {
+                        report.add(Instant.now() + " " + entry + ": " + result.getReason());
+                    }
+                }
+                journal.markReplayed(entry.getSequence());
+                replayed.increment();
+                count++;
+            }
+        } catch (IOException | SQLException e) {
+            System.out.println("Error occurred when replaying the journal, will retry");
+            e.printStackTrace();
+            for (Map.Entry<JournalEntry, String> entry : refused.entrySet()) {
+                report.add(Instant.now() + " " + entry.getKey() + ": " + entry.getValue() + ", patient needs to book again");
+            }
+            writeReport(report);
+            return false;
+        }
+
+        // entries recorded while this replay ran are left for the next one
+        if (journal.pendingCount() == 0) {
+            journal.compact();
+            offline = false;
+        }
+        // after the replay, so waitlist bookings come after every entry recorded before them
+        for (Map.Entry<JournalEntry, String> entry : refused.entrySet()) {
+            report.add(Instant.now() + " " + entry.getKey() + ": " + entry.getValue() + ", " + rebook(entry.getKey()));
+        }
+        writeReport(report);
+        if (count > 0) {
+            System.out.println("Replayed " + count + " journal entries, " + (report.isEmpty() ? "no conflicts"
+                    : report.size() + " conflicts, see " + conflictLogPath));
+        }
+        return true;
+    }
+
+    public void close() throws SQLException {
+        prober.shutdown();
+        try {
+            prober.awaitTermination(10, TimeUnit.SECONDS);
+            journal.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new SQLException("Could not close the journal", e);
+        }
+    }
+
+    private String rebook(JournalEntry entry) {
+        try {
+            WaitlistRequest request = Waitlist.shared().join(entry.getPatientId(), entry.getDate(), entry.getDate(),
+                    entry.getVaccineName());
+            return request == null ? "waitlist full, patient needs to book again" : "patient put on the waitlist";
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return "could not put the patient on the waitlist, patient needs to book again";
+        }
+    }
+
+    private void replayQuietly() {
+        try {
+            replay();
+        } catch (RuntimeException e) {
+            System.out.println("Error occurred when replaying the journal, will retry");
+            e.printStackTrace();
+        }
+    }
+
+    private synchronized void writeReport(List<String> lines) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        try (PrintWriter out = new PrintWriter(new FileWriter(conflictLogPath, true))) {
+            for (String line : lines) {
+                out.println(line);
+            }
+        } catch (IOException e) {
+            System.out.println("Could not write to " + conflictLogPath + ": " + e.getMessage());
+            for (String line : lines) {
+                System.out.println(line);
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package scheduler.journal;
+
+/**
+ * What replaying one journal entry against the database did.
+ */
+public final class ReplayResult {
+
+    public enum Status {
+        APPLIED,
+        // replayed before, nothing done
+        DUPLICATE,
+        // the database no longer allowed the change; all or part of it was left out
+        CONFLICT
+    }
+
+    private final Status status;
+    private final String reason;
+    private final int appointmentId;
+
+    private ReplayResult(Status status, String reason, int appointmentId) {
+        this.status = status;
+        this.reason = reason;
+        this.appointmentId = appointmentId;
+    }
+
+    public static ReplayResult applied() {
+        return new ReplayResult(Status.APPLIED, null, -1);
+    }
+
+    // a replayed reservation and the id the database gave its appointment
+    public static ReplayResult booked(int appointmentId) {
+        return new ReplayResult(Status.APPLIED, null, appointmentId);
+    }
+
+    public static ReplayResult duplicate() {
+        return new ReplayResult(Status.DUPLICATE, null, -1);
+    }
+
+    public static ReplayResult conflict(String reason) {
+        return new ReplayResult(Status.CONFLICT, reason, -1);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    // why the entry conflicted, null otherwise
+    public String getReason() {
+        return reason;
+    }
+
+    // -1 unless a reservation was booked
+    public int getAppointmentId() {
+        return appointmentId;
+    }
+}
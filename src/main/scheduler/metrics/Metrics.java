@@ -0,0 +1,128 @@
+package scheduler.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide latency recorders: one per console command, one per repository call and, when
+ * SQL tracing is on, one per SQL statement. Plain event counters, such as cache hits, sit
+ * alongside them.
+ *
+ * Recorders are created on first use and live for the whole process, so callers can keep a
+ * reference instead of looking the name up on every call. reset() clears the numbers but keeps
+ * the recorders.
+ */
+public final class Metrics {
+
+    public static final String JMX_NAME = "scheduler:type=SchedulerStats";
+
+    private static final Map<String, LatencyRecorder> commands = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyRecorder> database = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyRecorder> statements = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static LatencyRecorder command(String name) {
+        return commands.computeIfAbsent(name, LatencyRecorder::new);
+    }
+
+    public static LatencyRecorder database(String name) {
+        return database.computeIfAbsent(name, LatencyRecorder::new);
+    }
+
+    // keyed by SQL text; the scheduler only runs a fixed set of statements
+    public static LatencyRecorder statement(String sql) {
+        return statements.computeIfAbsent(sql, LatencyRecorder::new);
+    }
+
+    public static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    public static long totalCommands() {
+        return total(commands);
+    }
+
+    public static long totalDatabaseCalls() {
+        return total(database);
+    }
+
+    public static void reset() {
+        for (LatencyRecorder recorder : commands.values()) {
+            recorder.reset();
+        }
+        for (LatencyRecorder recorder : database.values()) {
+            recorder.reset();
+        }
+        for (LatencyRecorder recorder : statements.values()) {
+            recorder.reset();
+        }
+        for (LongAdder counter : counters.values()) {
+            counter.reset();
+        }
+    }
+
+    // a table of count, p50, p99, max and mean per recorder, in microseconds
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        appendTable(report, "command", commands);
+        appendTable(report, "database call", database);
+        if (!statements.isEmpty()) {
+            appendTable(report, "statement", statements);
+        }
+        if (!counters.isEmpty()) {
+            report.append(String.format("%-28s %9s%n", "counter", "value"));
+            for (Map.Entry<String, LongAdder> counter : new TreeMap<>(counters).entrySet()) {
+                report.append(String.format("%-28s %9d%n", counter.getKey(), counter.getValue().sum()));
+            }
+        }
+        return report.toString();
+    }
+
+    // makes the numbers readable from JConsole and other JMX clients; safe to call more than once
+    public static void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(JMX_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new SchedulerStats(), name);
+            }
+        } catch (JMException e) {
+            System.out.println("Could not register the stats MBean: " + e.getMessage());
+        }
+    }
+
+    private static long total(Map<String, LatencyRecorder> recorders) {
+        long total = 0;
+        for (LatencyRecorder recorder : recorders.values()) {
+            total += recorder.getCount();
+        }
+        return total;
+    }
+
+    private static void appendTable(StringBuilder report, String title, Map<String, LatencyRecorder> recorders) {
+        int width = 28;
+        for (String name : recorders.keySet()) {
+            width = Math.max(width, name.length());
+        }
+        String header = "%-" + width + "s %9s %10s %10s %10s %10s%n";
+        String row = "%-" + width + "s %9d %10d %10d %10d %10d%n";
+        report.append(String.format(header, title, "count", "p50 us", "p99 us", "max us", "mean us"));
+        for (LatencyRecorder recorder : new TreeMap<>(recorders).values()) {
+            if (recorder.getCount() == 0) {
+                continue;
+            }
+            report.append(String.format(row, recorder.getName(), recorder.getCount(),
+                    recorder.getPercentileNanos(0.50) / 1000, recorder.getPercentileNanos(0.99) / 1000,
+                    recorder.getMaxNanos() / 1000, recorder.getMeanNanos() / 1000));
+        }
+    }
+}
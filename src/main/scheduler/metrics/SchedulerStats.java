@@ -0,0 +1,36 @@
+package scheduler.metrics;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.ConnectionPool;
+
+/**
+ * JMX view of Metrics, registered under Metrics.JMX_NAME.
+ */
+public class SchedulerStats implements SchedulerStatsMBean {
+
+    @Override
+    public String getReport() {
+        return Metrics.report();
+    }
+
+    @Override
+    public long getCommandCount() {
+        return Metrics.totalCommands();
+    }
+
+    @Override
+    public long getDatabaseCallCount() {
+        return Metrics.totalDatabaseCalls();
+    }
+
+    @Override
+    public String getConnectionPool() {
+        ConnectionPool.PoolStats stats = ConnectionManager.poolStats();
+        return stats == null ? "not in use" : stats.toString();
+    }
+
+    @Override
+    public void reset() {
+        Metrics.reset();
+    }
+}
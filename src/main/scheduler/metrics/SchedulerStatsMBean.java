@@ -0,0 +1,16 @@
+package scheduler.metrics;
+
+public interface SchedulerStatsMBean {
+
+    // the same table the stats command prints
+    String getReport();
+
+    long getCommandCount();
+
+    long getDatabaseCallCount();
+
+    // the connection pool's counters, as the stats command prints them
+    String getConnectionPool();
+
+    void reset();
+}
@@ -0,0 +1,43 @@
+package scheduler.model;
+
+import java.sql.Date;
+
+/**
+ * One row of show_appointments: an appointment joined with the vaccine name and the
+ * username of the other party (the caregiver for a patient, the patient for a caregiver).
+ */
+public class AppointmentDetail {
+    private final int appointmentId;
+    private final String vaccineName;
+    private final Date date;
+    private final String counterpartUsername;
+    private final int slot;
+
+    public AppointmentDetail(int appointmentId, String vaccineName, Date date, int slot, String counterpartUsername) {
+        this.appointmentId = appointmentId;
+        this.vaccineName = vaccineName;
+        this.date = date;
+        this.slot = slot;
+        this.counterpartUsername = counterpartUsername;
+    }
+
+    public int getAppointmentId() {
+        return appointmentId;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public String getCounterpartUsername() {
+        return counterpartUsername;
+    }
+}
@@ -0,0 +1,84 @@
+package scheduler.model;
+
+import java.sql.Date;
+
+/**
+ * One page of show_appointments: appointments with an id after afterId, optionally within a
+ * date window, in appointment id order, at most limit of them.
+ *
+ * Paging by the last id seen (keyset pagination) rather than by offset means every page is an
+ * index range read, however deep into the history it is.
+ */
+public class AppointmentQuery {
+    private final int afterId;
+    private final int limit;
+    // inclusive bounds, null when open
+    private final Date from;
+    private final Date to;
+
+    private AppointmentQuery(AppointmentQueryBuilder builder) {
+        this.afterId = builder.afterId;
+        this.limit = builder.limit;
+        this.from = builder.from;
+        this.to = builder.to;
+    }
+
+    public static AppointmentQuery all() {
+        return new AppointmentQueryBuilder().build();
+    }
+
+    public int getAfterId() {
+        return afterId;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public Date getFrom() {
+        return from;
+    }
+
+    public Date getTo() {
+        return to;
+    }
+
+    // true if the date falls inside the window
+    public boolean covers(Date date) {
+        return (from == null || !date.before(from)) && (to == null || !date.after(to));
+    }
+
+    public static class AppointmentQueryBuilder {
+        private int afterId = 0;
+        private int limit = Integer.MAX_VALUE;
+        private Date from = null;
+        private Date to = null;
+
+        public AppointmentQueryBuilder after(int afterId) {
+            this.afterId = afterId;
+            return this;
+        }
+
+        public AppointmentQueryBuilder limit(int limit) {
+            if (limit <= 0) {
+                throw new IllegalArgumentException("Limit must be positive!");
+            }
+            this.limit = limit;
+            return this;
+        }
+
+        public AppointmentQueryBuilder from(Date from) {
+            this.from = from;
+            return this;
+        }
+
+        public AppointmentQueryBuilder to(Date to) {
+            this.to = to;
+            return this;
+        }
+
+        public AppointmentQuery build() {
+            return new AppointmentQuery(this);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package scheduler.model;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Outcome of a bulk availability upload: the dates that were added and, for every date that
+ * was not, the reason it was skipped.
+ */
+public class AvailabilityUpload {
+
+    private final List<Date> uploaded = new ArrayList<>();
+    private final Map<Date, String> conflicts = new TreeMap<>();
+
+    public void uploaded(Date date) {
+        uploaded.add(date);
+    }
+
+    public void conflict(Date date, String reason) {
+        conflicts.put(date, reason);
+    }
+
+    public List<Date> getUploaded() {
+        return Collections.unmodifiableList(uploaded);
+    }
+
+    // skipped dates in date order
+    public Map<Date, String> getConflicts() {
+        return Collections.unmodifiableMap(conflicts);
+    }
+}
@@ -1,26 +1,31 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
-import scheduler.util.Util;
+import scheduler.db.Repositories;
+import scheduler.util.PasswordHasher;
 
-import java.sql.*;
-import java.util.Arrays;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
 
 public class Caregiver {
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
+    // database id, -1 until it has been looked up
+    private final int caregiverId;
 
     private Caregiver(CaregiverBuilder builder) {
         this.username = builder.username;
         this.salt = builder.salt;
         this.hash = builder.hash;
+        this.caregiverId = builder.caregiverId;
     }
 
     private Caregiver(CaregiverGetter getter) {
         this.username = getter.username;
         this.salt = getter.salt;
         this.hash = getter.hash;
+        this.caregiverId = -1;
     }
 
     // Getters
@@ -37,62 +42,24 @@ public class Caregiver {
     }
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addCaregiver = "INSERT INTO Caregiver (username, salt, hash) VALUES (? , ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addCaregiver);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        Repositories.get().saveCaregiver(this);
     }
 
 
     public void uploadAvailability(Date d) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addAvailability = "INSERT INTO Availabilities VALUES (? , ?, 1)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addAvailability);
-            statement.setDate(1, d);
-            statement.setString(2, this.username);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        Repositories.get().uploadAvailability(this.username, d);
     }
 
+    public AvailabilityUpload uploadAvailability(List<Date> dates) throws SQLException {
+        return Repositories.get().uploadAvailability(this.username, dates);
+    }
+
+    // the id comes with the stored credentials at login, so this only queries when it is missing
     public int getCaregiverIdFromCredentials() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String getCaregiverId = "SELECT caregiverId FROM Caregiver WHERE Username = ? AND Salt = ? AND Hash = ?";
-        try {
-            PreparedStatement statement = con.prepareStatement(getCaregiverId);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            ResultSet resultSet = statement.executeQuery();
-            if (resultSet.next()) {
-                return resultSet.getInt("caregiverId");
-            } else {
-                throw new SQLException("No caregiver found with these credentials");
-            }
-        } catch (SQLException e) {
-            throw new SQLException(e.getMessage());
-        } finally {
-            cm.closeConnection();
+        if (caregiverId >= 0) {
+            return caregiverId;
         }
+        return Repositories.get().getCaregiverId(this.username, this.salt, this.hash);
     }
 
     public static class CaregiverBuilder {
@@ -100,12 +67,19 @@ public class Caregiver {
         private final byte[] salt;
         private final byte[] hash;
 
+        private int caregiverId = -1;
+
         public CaregiverBuilder(String username, byte[] salt, byte[] hash) {
             this.username = username;
             this.salt = salt;
             this.hash = hash;
         }
 
+        public CaregiverBuilder caregiverId(int caregiverId) {
+            this.caregiverId = caregiverId;
+            return this;
+        }
+
         public Caregiver build() {
             return new Caregiver(this);
         }
@@ -123,29 +97,16 @@ public class Caregiver {
         }
 
         public Caregiver get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getCaregiver = "SELECT salt, hash FROM Caregiver WHERE username = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getCaregiver);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] saltFromDB = resultSet.getBytes("salt");
-                    byte[] hashFromDB = resultSet.getBytes("hash");
-                    byte[] calculatedHash = Util.generateHash(password, saltFromDB);
-                    if (Arrays.equals(hashFromDB, calculatedHash)) {
-                        // Authentication successful, create and return the patient
-                        return new Caregiver.CaregiverBuilder(username, saltFromDB, hashFromDB).build();
-                    }
-                }
+            Caregiver stored = Repositories.get().getCaregiver(this.username);
+            if (stored == null) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
+            // throws RejectedExecutionException when the hasher is saturated
+            if (PasswordHasher.shared().verify(password, stored.getSalt(), stored.getHash())) {
+                // Authentication successful, return the caregiver
+                return stored;
+            }
+            return null;
         }
     }
 }
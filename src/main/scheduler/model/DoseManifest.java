@@ -0,0 +1,84 @@
+package scheduler.model;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A shipment manifest read from CSV, one "vaccine,quantity" line per entry.
+ *
+ * The file is streamed line by line and quantities are summed per vaccine as they are read,
+ * so memory grows with the number of vaccines, not the number of lines. A negative quantity is
+ * an adjustment. Blank lines, '#' comments and a leading header line are skipped; any other
+ * line that does not parse is rejected with its line number and does not stop the import.
+ */
+public class DoseManifest {
+
+    private final Map<String, Integer> totals = new LinkedHashMap<>();
+    private final List<String> rejected = new ArrayList<>();
+    private int lines = 0;
+
+    public static DoseManifest read(BufferedReader reader) throws IOException {
+        DoseManifest manifest = new DoseManifest();
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            manifest.lines++;
+            String[] fields = line.split(",");
+            if (fields.length != 2 || fields[0].trim().isEmpty()) {
+                manifest.reject(lineNumber, "expected <vaccine>,<quantity>");
+                continue;
+            }
+            String vaccineName = fields[0].trim();
+            int quantity;
+            try {
+                quantity = Integer.parseInt(fields[1].trim());
+            } catch (NumberFormatException e) {
+                if (manifest.lines == 1) {
+                    // header line
+                    manifest.lines--;
+                } else {
+                    manifest.reject(lineNumber, "quantity is not a number");
+                }
+                continue;
+            }
+            try {
+                manifest.totals.merge(vaccineName, quantity, Math::addExact);
+            } catch (ArithmeticException e) {
+                manifest.reject(lineNumber, "total quantity for " + vaccineName + " is too large");
+            }
+        }
+        return manifest;
+    }
+
+    public void reject(String reason) {
+        rejected.add(reason);
+    }
+
+    // summed change per vaccine, in the order vaccines first appear in the file
+    public Map<String, Integer> getTotals() {
+        return Collections.unmodifiableMap(totals);
+    }
+
+    public List<String> getRejected() {
+        return Collections.unmodifiableList(rejected);
+    }
+
+    // data lines read, not counting blanks, comments or the header
+    public int getLines() {
+        return lines;
+    }
+
+    private void reject(int lineNumber, String reason) {
+        rejected.add("line " + lineNumber + ": " + reason);
+    }
+}
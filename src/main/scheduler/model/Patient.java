@@ -1,26 +1,29 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
-import scheduler.util.Util;
+import scheduler.db.Repositories;
+import scheduler.util.PasswordHasher;
 
-import java.util.*;
-import java.sql.*;
+import java.sql.SQLException;
 
 public class Patient {
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
+    // database id, -1 until it has been looked up
+    private final int patientId;
 
     private Patient(PatientBuilder builder) {
         this.username = builder.username;
         this.salt = builder.salt;
         this.hash = builder.hash;
+        this.patientId = builder.patientId;
     }
 
     private Patient(PatientGetter getter) {
         this.username = getter.username;
         this.salt = getter.salt;
         this.hash = getter.hash;
+        this.patientId = -1;
     }
 
     // Getters
@@ -37,43 +40,15 @@ public class Patient {
     }
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addPatient = "INSERT INTO Patient (username, salt, hash) VALUES (?, ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addPatient);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        Repositories.get().savePatient(this);
     }
+
+    // the id comes with the stored credentials at login, so this only queries when it is missing
     public int getPatientIdFromCredentials() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String getPatientId = "SELECT patientId FROM Patient WHERE Username = ? AND Salt = ? AND Hash = ?";
-        try {
-            PreparedStatement statement = con.prepareStatement(getPatientId);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            ResultSet resultSet = statement.executeQuery();
-            if (resultSet.next()) {
-                return resultSet.getInt("PatientId");
-            } else {
-                throw new SQLException("No patient found with these credentials");
-            }
-        } catch (SQLException e) {
-            throw new SQLException(e.getMessage());
-        } finally {
-            cm.closeConnection();
+        if (patientId >= 0) {
+            return patientId;
         }
+        return Repositories.get().getPatientId(this.username, this.salt, this.hash);
     }
 
 
@@ -82,12 +57,19 @@ public class Patient {
         private final byte[] salt;
         private final byte[] hash;
 
+        private int patientId = -1;
+
         public PatientBuilder(String username, byte[] salt, byte[] hash) {
             this.username = username;
             this.salt = salt;
             this.hash = hash;
         }
 
+        public PatientBuilder patientId(int patientId) {
+            this.patientId = patientId;
+            return this;
+        }
+
         public Patient build() {
             return new Patient(this);
         }
@@ -106,28 +88,15 @@ public class Patient {
         }
 
         public Patient get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getPatient = "SELECT salt, hash FROM Patient WHERE username = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getPatient);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] saltFromDB = resultSet.getBytes("salt");
-                    byte[] hashFromDB = resultSet.getBytes("hash");
-                    byte[] calculatedHash = Util.generateHash(password, saltFromDB);
-                    if (Arrays.equals(hashFromDB, calculatedHash)) {
-                        return new PatientBuilder(username, saltFromDB, hashFromDB).build();
-                    }
-                }
+            Patient stored = Repositories.get().getPatient(this.username);
+            if (stored == null) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException(e.getMessage());
-            } finally {
-                cm.closeConnection();
             }
+            // throws RejectedExecutionException when the hasher is saturated
+            if (PasswordHasher.shared().verify(password, stored.getSalt(), stored.getHash())) {
+                return stored;
+            }
+            return null;
         }
     }
 }
@@ -0,0 +1,67 @@
+package scheduler.model;
+
+/**
+ * Outcome of a reserve request: either the booked appointment or the reason nothing was booked.
+ */
+public class Reservation {
+
+    public enum Status {
+        RESERVED,
+        NO_DOSES,
+        NO_CAREGIVER,
+        // booked while the database was unreachable; the appointment gets its id when the journal is replayed
+        JOURNALED
+    }
+
+    private final Status status;
+    private final int appointmentId;
+    private final String caregiverUsername;
+    private final int slot;
+    private final long journalSequence;
+
+    private Reservation(Status status, int appointmentId, String caregiverUsername, int slot, long journalSequence) {
+        this.status = status;
+        this.appointmentId = appointmentId;
+        this.caregiverUsername = caregiverUsername;
+        this.slot = slot;
+        this.journalSequence = journalSequence;
+    }
+
+    public static Reservation reserved(int appointmentId, String caregiverUsername, int slot) {
+        return new Reservation(Status.RESERVED, appointmentId, caregiverUsername, slot, -1);
+    }
+
+    public static Reservation journaled(long journalSequence, String caregiverUsername, int slot) {
+        return new Reservation(Status.JOURNALED, -1, caregiverUsername, slot, journalSequence);
+    }
+
+    public static Reservation noDoses() {
+        return new Reservation(Status.NO_DOSES, -1, null, -1, -1);
+    }
+
+    public static Reservation noCaregiver() {
+        return new Reservation(Status.NO_CAREGIVER, -1, null, -1, -1);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public int getAppointmentId() {
+        return appointmentId;
+    }
+
+    public String getCaregiverUsername() {
+        return caregiverUsername;
+    }
+
+    // the booked time slot of the day, see TimeSlots
+    public int getSlot() {
+        return slot;
+    }
+
+    // the journal entry a JOURNALED reservation was recorded as, -1 otherwise
+    public long getJournalSequence() {
+        return journalSequence;
+    }
+}
@@ -0,0 +1,113 @@
+package scheduler.model;
+
+import scheduler.util.Util;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.StringJoiner;
+
+/**
+ * How a caregiver's day is divided into bookable slots.
+ *
+ * Slots are SlotMinutes long and run from SlotDayStart to SlotDayEnd (09:00 and 17:00 unless
+ * set). A day has at most 64 slots, so the free slots of one caregiver on one day fit in a single
+ * long: bit i is set while slot i is free. Without SlotMinutes the whole day is one slot, which is
+ * how availability worked before slots existed.
+ */
+public final class TimeSlots {
+
+    public static final int MAX_SLOTS = 64;
+    // reserve with no time asked for takes the earliest free slot
+    public static final int ANY = -1;
+
+    private static final TimeSlots configured = fromEnvironment();
+
+    private final int slotMinutes;
+    private final int dayStartMinutes;
+    private final int count;
+
+    private TimeSlots(int slotMinutes, int dayStartMinutes, int count) {
+        this.slotMinutes = slotMinutes;
+        this.dayStartMinutes = dayStartMinutes;
+        this.count = count;
+    }
+
+    public static TimeSlots of(int slotMinutes, LocalTime dayStart, LocalTime dayEnd) {
+        int length = (dayEnd.toSecondOfDay() - dayStart.toSecondOfDay()) / 60;
+        if (slotMinutes <= 0 || length < slotMinutes) {
+            throw new IllegalArgumentException("A day from " + dayStart + " to " + dayEnd + " has no "
+                    + slotMinutes + " minute slot");
+        }
+        if (length / slotMinutes > MAX_SLOTS) {
+            throw new IllegalArgumentException("A day can have at most " + MAX_SLOTS + " slots, "
+                    + dayStart + " to " + dayEnd + " has " + length / slotMinutes + " of " + slotMinutes + " minutes");
+        }
+        return new TimeSlots(slotMinutes, dayStart.toSecondOfDay() / 60, length / slotMinutes);
+    }
+
+    public static TimeSlots wholeDay() {
+        return new TimeSlots(24 * 60, 0, 1);
+    }
+
+    public static TimeSlots configured() {
+        return configured;
+    }
+
+    private static TimeSlots fromEnvironment() {
+        int slotMinutes = Util.getEnvInt("SlotMinutes", 0);
+        if (slotMinutes <= 0) {
+            return wholeDay();
+        }
+        return of(slotMinutes, time("SlotDayStart", "09:00"), time("SlotDayEnd", "17:00"));
+    }
+
+    private static LocalTime time(String name, String fallback) {
+        String value = System.getenv(name);
+        return LocalTime.parse(value == null || value.isBlank() ? fallback : value);
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public boolean isWholeDay() {
+        return count == 1 && slotMinutes == 24 * 60;
+    }
+
+    // every slot of the day free
+    public long fullMask() {
+        return count == MAX_SLOTS ? -1L : (1L << count) - 1;
+    }
+
+    public static long bit(int slot) {
+        return 1L << slot;
+    }
+
+    public LocalTime start(int slot) {
+        return LocalTime.ofSecondOfDay((long) (dayStartMinutes + slot * slotMinutes) * 60);
+    }
+
+    // the slot starting at the given time, e.g. "09:30"; -1 if no slot starts then
+    public int parse(String time) {
+        LocalTime start;
+        try {
+            start = LocalTime.parse(time);
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+        int offset = start.toSecondOfDay() / 60 - dayStartMinutes;
+        if (start.getSecond() != 0 || offset < 0 || offset % slotMinutes != 0 || offset / slotMinutes >= count) {
+            return -1;
+        }
+        return offset / slotMinutes;
+    }
+
+    // start times of the slots set in the mask, e.g. "09:00, 09:15, 11:30"
+    public String describe(long slots) {
+        StringJoiner times = new StringJoiner(", ");
+        for (long rest = slots & fullMask(); rest != 0; rest &= rest - 1) {
+            times.add(start(Long.numberOfTrailingZeros(rest)).toString());
+        }
+        return times.toString();
+    }
+}
@@ -1,9 +1,7 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.db.Repositories;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.Date;
 
@@ -13,13 +11,19 @@ public class VaccineAppointment {
     private int patientId;
     private int caregiverId;
     private int vaccineId;
+    private int slot;
 
     public VaccineAppointment(int appointmentId, int patientId, int caregiverId, int vaccineId, Date date) {
+        this(appointmentId, patientId, caregiverId, vaccineId, date, 0);
+    }
+
+    public VaccineAppointment(int appointmentId, int patientId, int caregiverId, int vaccineId, Date date, int slot) {
         this.appointmentId = appointmentId;
         this.patientId = patientId;
         this.caregiverId = caregiverId;
         this.vaccineId = vaccineId;
         this.date = date;
+        this.slot = slot;
     }
     public Date getDate() {
         return date;
@@ -36,24 +40,11 @@ public class VaccineAppointment {
     public int getPatientId() {
         return patientId;
     }
+    public int getSlot() {
+        return slot;
+    }
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addAppointment = "INSERT INTO Appointments VALUES (?, ?, ?, ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addAppointment);
-            statement.setInt(1, this.appointmentId);
-            statement.setInt(2, this.patientId);
-            statement.setInt(3, this.caregiverId);
-            statement.setInt(4, this.vaccineId);
-            statement.setDate(5, new java.sql.Date(this.date.getTime()));
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        Repositories.get().saveAppointment(this);
     }
 }
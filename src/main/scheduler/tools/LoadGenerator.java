@@ -0,0 +1,354 @@
+package scheduler.tools;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.Repositories;
+import scheduler.db.SchedulerRepository;
+import scheduler.db.SchemaMigrator;
+import scheduler.metrics.LatencyRecorder;
+import scheduler.metrics.Metrics;
+import scheduler.model.AppointmentDetail;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Reservation;
+import scheduler.model.TimeSlots;
+import scheduler.model.Vaccine;
+import scheduler.util.PasswordHasher;
+import scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Simulates a vaccination drive against the scheduler's storage layer.
+ *
+ * It creates synthetic caregivers (available on every simulated date), vaccines and patients,
+ * then runs many concurrent clients that each loop over a weighted mix of login,
+ * search_caregiver_schedule, reserve and cancel for the configured time. Each operation goes
+ * through the same model and repository calls as the console command. At the end it prints
+ * throughput, latency percentiles per operation, reservation outcomes, slot conflicts and
+ * retries, and the result of invariant checks: no caregiver booked twice on a day, no negative
+ * stock, doses and free slots that add up with the appointments made.
+ *
+ * Usage: LoadGenerator [--storage=memory|jdbc] [--patients=10000] [--caregivers=100]
+ *        [--dates=3] [--doses=100000] [--clients=64] [--seconds=30]
+ *        [--mix=login:10,search:30,reserve:50,cancel:10]
+ *
+ * Every run uses fresh, run-specific usernames and vaccine names, so it can be pointed at a
+ * shared test database, but it never removes what it created.
+ */
+public class LoadGenerator {
+
+    private static final String PASSWORD = "load-test";
+
+    private final SchedulerRepository repository;
+    private final int patients;
+    private final int caregivers;
+    private final int dates;
+    private final int doses;
+    private final int clients;
+    private final int seconds;
+    private final Map<String, Integer> mix;
+
+    private final String prefix = "lg" + Long.toString(System.currentTimeMillis(), 36) + "_";
+    private final String vaccine = prefix + "vaccine";
+    private final List<Date> dateValues = new ArrayList<>();
+    private int[] patientIds;
+
+    private final Map<String, LatencyRecorder> latencies = new LinkedHashMap<>();
+    private final LongAdder reserved = new LongAdder();
+    private final LongAdder noCaregiver = new LongAdder();
+    private final LongAdder noDoses = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder busy = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    public LoadGenerator(SchedulerRepository repository, int patients, int caregivers, int dates, int doses,
+                         int clients, int seconds, Map<String, Integer> mix) {
+        this.repository = repository;
+        this.patients = patients;
+        this.caregivers = caregivers;
+        this.dates = dates;
+        this.doses = doses;
+        this.clients = clients;
+        this.seconds = seconds;
+        this.mix = mix;
+        for (String operation : mix.keySet()) {
+            latencies.put(operation, new LatencyRecorder(operation));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                System.out.println("Ignoring argument " + arg);
+                continue;
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        SchedulerRepository repository = Repositories.create(options.getOrDefault("storage", Repositories.MEMORY));
+        Repositories.use(repository);
+        if (Repositories.usesDatabase() && !"off".equalsIgnoreCase(System.getenv("SchemaMigration"))) {
+            new SchemaMigrator().migrate();
+        }
+
+        LoadGenerator generator = new LoadGenerator(repository,
+                Integer.parseInt(options.getOrDefault("patients", "10000")),
+                Integer.parseInt(options.getOrDefault("caregivers", "100")),
+                Integer.parseInt(options.getOrDefault("dates", "3")),
+                Integer.parseInt(options.getOrDefault("doses", "100000")),
+                Integer.parseInt(options.getOrDefault("clients", "64")),
+                Integer.parseInt(options.getOrDefault("seconds", "30")),
+                parseMix(options.getOrDefault("mix", "login:10,search:30,reserve:50,cancel:10")));
+        int violations;
+        try {
+            generator.populate();
+            generator.run();
+            violations = generator.checkInvariants();
+        } finally {
+            Repositories.shutdown();
+            ConnectionManager.shutdown();
+        }
+        System.exit(violations == 0 ? 0 : 1);
+    }
+
+    static Map<String, Integer> parseMix(String spec) {
+        Map<String, Integer> mix = new LinkedHashMap<>();
+        for (String part : spec.split(",")) {
+            String[] pair = part.split(":");
+            String operation = pair[0].trim();
+            if (!operation.equals("login") && !operation.equals("search") && !operation.equals("reserve")
+                    && !operation.equals("cancel")) {
+                throw new IllegalArgumentException("Unknown operation in mix: " + operation);
+            }
+            mix.put(operation, Integer.parseInt(pair[1].trim()));
+        }
+        return mix;
+    }
+
+    // synthetic data: every caregiver is available on every date
+    public void populate() throws SQLException {
+        long start = System.nanoTime();
+        LocalDate first = LocalDate.now().plusDays(30);
+        for (int i = 0; i < dates; i++) {
+            dateValues.add(Date.valueOf(first.plusDays(i)));
+        }
+        for (int i = 0; i < caregivers; i++) {
+            byte[] salt = Util.generateSalt();
+            Caregiver caregiver = new Caregiver.CaregiverBuilder(prefix + "c" + i, salt,
+                    PasswordHasher.shared().hash(PASSWORD, salt)).build();
+            caregiver.saveToDB();
+            caregiver.uploadAvailability(dateValues);
+        }
+        Map<String, Integer> stock = new HashMap<>();
+        stock.put(vaccine, doses);
+        repository.importDoses(stock);
+
+        patientIds = new int[patients];
+        for (int i = 0; i < patients; i++) {
+            byte[] salt = Util.generateSalt();
+            Patient patient = new Patient.PatientBuilder(prefix + "p" + i, salt,
+                    PasswordHasher.shared().hash(PASSWORD, salt)).build();
+            patient.saveToDB();
+            patientIds[i] = repository.getPatient(patient.getUsername()).getPatientIdFromCredentials();
+        }
+        System.out.println("Created " + caregivers + " caregivers on " + dates + " dates, " + patients
+                + " patients and " + doses + " doses of " + vaccine + " in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+
+    public void run() throws Exception {
+        long conflictsBefore = Metrics.counter("reserve.conflicts").sum();
+        long retriesBefore = Metrics.counter("reserve.retries").sum();
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(seconds);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            futures.add(pool.submit(() -> runClient(client, deadline)));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        pool.shutdown();
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        long total = 0;
+        for (LatencyRecorder recorder : latencies.values()) {
+            total += recorder.getCount();
+        }
+        System.out.printf("%d operations from %d clients in %.1f s: %.0f ops/sec%n", total, clients, elapsedSeconds,
+                total / elapsedSeconds);
+        System.out.printf("%-10s %9s %10s %10s %10s %10s%n", "operation", "count", "p50 us", "p99 us", "p99.9 us", "max us");
+        for (LatencyRecorder recorder : latencies.values()) {
+            System.out.printf("%-10s %9d %10d %10d %10d %10d%n", recorder.getName(), recorder.getCount(),
+                    recorder.getPercentileNanos(0.5) / 1000, recorder.getPercentileNanos(0.99) / 1000,
+                    recorder.getPercentileNanos(0.999) / 1000, recorder.getMaxNanos() / 1000);
+        }
+        long reserves = reserved.sum() + noCaregiver.sum() + noDoses.sum();
+        long conflicts = Metrics.counter("reserve.conflicts").sum() - conflictsBefore;
+        long retries = Metrics.counter("reserve.retries").sum() - retriesBefore;
+        System.out.println("reserve: " + reserved.sum() + " booked, " + noCaregiver.sum() + " no caregiver, "
+                + noDoses.sum() + " no doses; " + cancelled.sum() + " cancelled");
+        System.out.printf("conflicts: %d (%.2f per reserve), retries: %d (%.2f per reserve)%n", conflicts,
+                reserves == 0 ? 0.0 : (double) conflicts / reserves, retries, reserves == 0 ? 0.0 : (double) retries / reserves);
+        System.out.println("busy: " + busy.sum() + ", errors: " + errors.sum());
+    }
+
+    // each client owns the patients whose index is congruent to its number, so their bookings are its own
+    private void runClient(int client, long deadline) {
+        Random random = ThreadLocalRandom.current();
+        Map<Integer, List<Integer>> booked = new HashMap<>();
+        int weights = 0;
+        for (int weight : mix.values()) {
+            weights += weight;
+        }
+        int owned = (patients - client + clients - 1) / clients;
+        if (owned <= 0) {
+            return;
+        }
+        while (System.nanoTime() < deadline) {
+            int patient = client + clients * random.nextInt(owned);
+            String operation = pick(random.nextInt(weights));
+            long start = System.nanoTime();
+            try {
+                switch (operation) {
+                    case "login":
+                        new Patient.PatientGetter(prefix + "p" + patient, PASSWORD).get();
+                        break;
+                    case "search":
+                        repository.getAvailableCaregivers(dateValues.get(random.nextInt(dates)));
+                        repository.getVaccines();
+                        break;
+                    case "reserve":
+                        reserve(patient, dateValues.get(random.nextInt(dates)), booked);
+                        break;
+                    default:
+                        cancel(patient, booked, random);
+                        break;
+                }
+            } catch (RejectedExecutionException e) {
+                busy.increment();
+            } catch (SQLException | RuntimeException e) {
+                errors.increment();
+            } finally {
+                latencies.get(operation).recordSince(start);
+            }
+        }
+    }
+
+    private String pick(int ticket) {
+        for (Map.Entry<String, Integer> entry : mix.entrySet()) {
+            ticket -= entry.getValue();
+            if (ticket < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException("Empty mix");
+    }
+
+    private void reserve(int patient, Date date, Map<Integer, List<Integer>> booked) throws SQLException {
+        Reservation reservation = repository.reserve(patientIds[patient], date, vaccine);
+        switch (reservation.getStatus()) {
+            case RESERVED:
+                reserved.increment();
+                booked.computeIfAbsent(patient, p -> new ArrayList<>()).add(reservation.getAppointmentId());
+                break;
+            case NO_CAREGIVER:
+                noCaregiver.increment();
+                break;
+            default:
+                noDoses.increment();
+                break;
+        }
+    }
+
+    private void cancel(int patient, Map<Integer, List<Integer>> booked, Random random) throws SQLException {
+        List<Integer> appointments = booked.get(patient);
+        if (appointments == null || appointments.isEmpty()) {
+            return;
+        }
+        int appointmentId = appointments.remove(random.nextInt(appointments.size()));
+        if (repository.cancelPatientAppointment(appointmentId, patientIds[patient])) {
+            cancelled.increment();
+        }
+    }
+
+    // returns the number of violations found
+    public int checkInvariants() throws SQLException {
+        int violations = 0;
+        int booked = 0;
+        Map<Date, Integer> bookedPerDate = new HashMap<>();
+        // spread of the work over caregivers, which depends on the AssignmentStrategy
+        int fewest = Integer.MAX_VALUE;
+        int most = 0;
+        for (int i = 0; i < caregivers; i++) {
+            Caregiver caregiver = repository.getCaregiver(prefix + "c" + i);
+            Map<String, Integer> perSlot = new HashMap<>();
+            for (AppointmentDetail appointment : repository.getCaregiverAppointments(caregiver.getCaregiverIdFromCredentials())) {
+                if (!appointment.getVaccineName().equals(vaccine)) {
+                    continue;
+                }
+                booked++;
+                bookedPerDate.merge(appointment.getDate(), 1, Integer::sum);
+                if (perSlot.merge(appointment.getDate() + " slot " + appointment.getSlot(), 1, Integer::sum) == 2) {
+                    violations++;
+                    System.out.println("VIOLATION: " + caregiver.getUsername() + " is booked more than once on "
+                            + appointment.getDate() + " slot " + appointment.getSlot());
+                }
+            }
+            int caregiverBookings = perSlot.values().stream().mapToInt(Integer::intValue).sum();
+            fewest = Math.min(fewest, caregiverBookings);
+            most = Math.max(most, caregiverBookings);
+        }
+        System.out.println("appointments per caregiver: fewest " + fewest + ", most " + most);
+
+        if (booked != reserved.sum() - cancelled.sum()) {
+            violations++;
+            System.out.println("VIOLATION: " + booked + " appointments stored, but " + reserved.sum() + " booked and "
+                    + cancelled.sum() + " cancelled");
+        }
+
+        Vaccine stock = repository.getVaccine(vaccine);
+        if (stock == null || stock.getAvailableDoses() < 0) {
+            violations++;
+            System.out.println("VIOLATION: negative or missing stock for " + vaccine);
+        } else if (stock.getAvailableDoses() + booked != doses) {
+            violations++;
+            System.out.println("VIOLATION: " + stock.getAvailableDoses() + " doses left and " + booked
+                    + " booked, but " + doses + " were stocked");
+        }
+
+        int slotsPerDay = TimeSlots.configured().count();
+        for (Date date : dateValues) {
+            int taken = bookedPerDate.getOrDefault(date, 0);
+            int free = 0;
+            for (long slots : repository.getFreeSlots(date).values()) {
+                free += Long.bitCount(slots);
+            }
+            // other data in the same database may add caregivers, never remove ours
+            if (free + taken < caregivers * slotsPerDay) {
+                violations++;
+                System.out.println("VIOLATION: on " + date + " " + free + " free and " + taken
+                        + " booked slots do not cover " + caregivers + " caregivers with " + slotsPerDay + " slots each");
+            }
+        }
+        System.out.println(violations == 0 ? "Invariants hold" : violations + " invariant violations");
+        return violations;
+    }
+}
@@ -0,0 +1,145 @@
+package scheduler.util;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs PBKDF2 password hashing on a dedicated, bounded pool.
+ *
+ * Hashing is CPU-bound, so the pool has one thread per core and a bounded queue in front of it.
+ * When the queue is full new requests are rejected straight away, and requests that waited in
+ * the queue longer than the maximum wait are dropped instead of hashed, so a login burst turns
+ * into quick "busy" answers rather than a JVM with every core pinned and every caller stuck.
+ */
+public class PasswordHasher {
+
+    private static volatile PasswordHasher shared = null;
+
+    private final ThreadPoolExecutor executor;
+    private final long maxWaitNanos;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong totalHashNanos = new AtomicLong();
+
+    public PasswordHasher(int threads, int queueCapacity, long maxWaitMillis) {
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread t = new Thread(r, "password-hasher-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    }
+
+    public static PasswordHasher shared() {
+        PasswordHasher h = shared;
+        if (h == null) {
+            synchronized (PasswordHasher.class) {
+                h = shared;
+                if (h == null) {
+                    int cores = Runtime.getRuntime().availableProcessors();
+                    h = new PasswordHasher(Util.getEnvInt("HashThreads", cores),
+                            Util.getEnvInt("HashQueueCapacity", cores * 64),
+                            Util.getEnvInt("HashMaxWaitMillis", 2000));
+                    shared = h;
+                }
+            }
+        }
+        return h;
+    }
+
+    public CompletableFuture<byte[]> hashAsync(String password, byte[] salt) {
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        long enqueued = System.nanoTime();
+        submitted.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                long started = System.nanoTime();
+                long waited = started - enqueued;
+                totalWaitNanos.addAndGet(waited);
+                if (waited > maxWaitNanos) {
+                    expired.incrementAndGet();
+                    result.completeExceptionally(new RejectedExecutionException("Password hashing queue wait exceeded"));
+                    return;
+                }
+                try {
+                    result.complete(Util.generateHash(password, salt));
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    totalHashNanos.addAndGet(System.nanoTime() - started);
+                    completed.incrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    public CompletableFuture<Boolean> verifyAsync(String password, byte[] salt, byte[] expectedHash) {
+        return hashAsync(password, salt).thenApply(hash -> Arrays.equals(hash, expectedHash));
+    }
+
+    // blocking forms for callers that have nothing else to do meanwhile; both throw
+    // RejectedExecutionException when the hasher is saturated
+    public byte[] hash(String password, byte[] salt) {
+        return await(hashAsync(password, salt));
+    }
+
+    public boolean verify(String password, byte[] salt, byte[] expectedHash) {
+        return await(verifyAsync(password, salt, expectedHash));
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public String stats() {
+        long done = completed.get();
+        return "PasswordHasher{" +
+                "threads=" + executor.getMaximumPoolSize() +
+                ", active=" + executor.getActiveCount() +
+                ", queueDepth=" + getQueueDepth() +
+                ", submitted=" + submitted.get() +
+                ", completed=" + done +
+                ", rejected=" + rejected.get() +
+                ", expired=" + expired.get() +
+                ", averageWaitMicros=" + (done == 0 ? 0 : totalWaitNanos.get() / done / 1000) +
+                ", averageHashMicros=" + (done == 0 ? 0 : totalHashNanos.get() / done / 1000) +
+                '}';
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for password hashing", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new CompletionException(cause);
+        }
+    }
+}
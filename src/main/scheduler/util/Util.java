@@ -2,11 +2,17 @@ package scheduler.util;
 
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 public class Util {
 
@@ -22,22 +28,66 @@ public class Util {
         return salt;
     }
 
+    // SecretKeyFactory lookup is expensive and instances are not thread-safe, so each thread keeps its own
+    private static final ThreadLocal<SecretKeyFactory> KEY_FACTORY = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    });
+
     public static byte[] generateHash(String password, byte[] salt) {
         // Specify the hash parameters
         KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, HASH_STRENGTH, KEY_LENGTH);
 
         // Generate the hash
-        SecretKeyFactory factory = null;
         byte[] hash = null;
         try {
-            factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-            hash = factory.generateSecret(spec).getEncoded();
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
+            hash = KEY_FACTORY.get().generateSecret(spec).getEncoded();
+        } catch (InvalidKeySpecException ex) {
             throw new IllegalStateException();
         }
         return hash;
     }
 
+    // reads an integer setting from the environment, falling back to the default when unset or malformed
+    public static int getEnvInt(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    // one virtual thread per task where the JDK has them (21+), named threadName-0, threadName-1 and
+    // so on; otherwise a cached pool of daemon threads named threadName. Reached through method
+    // handles so the code still builds and runs on older JDKs
+    public static ExecutorService newVirtualThreadExecutor(String threadName) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            MethodHandle ofVirtual = lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(builderType));
+            MethodHandle name = lookup.findVirtual(builderType, "name",
+                    MethodType.methodType(builderType, String.class, long.class));
+            MethodHandle factory = lookup.findVirtual(builderType, "factory", MethodType.methodType(ThreadFactory.class));
+            MethodHandle executor = lookup.findStatic(Executors.class, "newThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService.class, ThreadFactory.class));
+            Object builder = name.invoke(ofVirtual.invoke(), threadName + "-", 0L);
+            return (ExecutorService) executor.invoke((ThreadFactory) factory.invoke(builder));
+        } catch (Throwable e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, threadName);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
     public static byte[] trim(byte[] bytes)
     {
         int i = bytes.length - 1;
@@ -0,0 +1,274 @@
+package scheduler.waitlist;
+
+import scheduler.db.Repositories;
+import scheduler.db.SchedulerRepository;
+import scheduler.metrics.Metrics;
+import scheduler.model.Reservation;
+import scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Patients waiting for a caregiver, booked automatically as capacity frees up.
+ *
+ * Each patient has at most one waiting request, a date range and a vaccine. Requests are kept in
+ * one ordered set: by join order ("fifo", the default) or, with WaitlistOrder=deadline, by the
+ * last acceptable date first and join order after that. Whenever availability is uploaded, an
+ * appointment is cancelled or doses are added, the waiting requests that could use the new
+ * capacity are walked in that order and booked through the normal reserve call, so the usual
+ * caregiver and dose checks apply. Free caregivers per day come from countAvailableCaregivers,
+ * which is answered from the availability index; appointments are never rescanned.
+ *
+ * The waitlist lives in this process only. Bookings are kept per patient until the patient's
+ * next command picks them up. The candidates are picked under the waitlist's lock but booked
+ * outside it, so commands on the waitlist do not wait for reserve. While one request is being
+ * booked it is marked: other matches skip it, and the patient's leave or join waits until the
+ * booking is done, so a patient is never booked for a request they have withdrawn.
+ */
+public class Waitlist {
+
+    private static volatile Waitlist shared = null;
+
+    private final TreeSet<WaitlistRequest> waiting;
+    private final Map<Integer, WaitlistRequest> byPatient = new HashMap<>();
+    private final Map<Integer, List<WaitlistAssignment>> assigned = new ConcurrentHashMap<>();
+    // patients whose request a match is booking right now
+    private final Set<Integer> booking = new HashSet<>();
+    private final int capacity;
+    private long nextSequence = 1;
+
+    public Waitlist(Comparator<WaitlistRequest> order, int capacity) {
+        this.waiting = new TreeSet<>(order.thenComparingLong(WaitlistRequest::getSequence));
+        this.capacity = capacity;
+    }
+
+    public static Waitlist shared() {
+        Waitlist w = shared;
+        if (w == null) {
+            synchronized (Waitlist.class) {
+                w = shared;
+                if (w == null) {
+                    w = new Waitlist(order(System.getenv("WaitlistOrder")), Util.getEnvInt("WaitlistCapacity", 10000));
+                    shared = w;
+                }
+            }
+        }
+        return w;
+    }
+
+    public static Comparator<WaitlistRequest> order(String name) {
+        if (name == null || name.isBlank() || name.equalsIgnoreCase("fifo")) {
+            return Comparator.comparingLong(WaitlistRequest::getSequence);
+        }
+        if (name.equalsIgnoreCase("deadline")) {
+            return Comparator.comparing(WaitlistRequest::getEnd);
+        }
+        throw new IllegalArgumentException("Unknown waitlist order: " + name);
+    }
+
+    // queues the patient, replacing any request the patient already had, and books it straight
+    // away if there is room; returns null when the waitlist is full
+    public WaitlistRequest join(int patientId, Date start, Date end, String vaccineName) throws SQLException {
+        WaitlistRequest request;
+        synchronized (this) {
+            awaitBooking(patientId);
+            WaitlistRequest previous = byPatient.remove(patientId);
+            if (previous != null) {
+                waiting.remove(previous);
+            } else if (waiting.size() >= capacity) {
+                return null;
+            }
+            request = new WaitlistRequest(nextSequence++, patientId, start, end, vaccineName);
+            waiting.add(request);
+            byPatient.put(patientId, request);
+        }
+        Metrics.counter("waitlist.joined").increment();
+        match(null, start, end);
+        return request;
+    }
+
+    public synchronized boolean leave(int patientId) {
+        awaitBooking(patientId);
+        WaitlistRequest request = byPatient.remove(patientId);
+        if (request == null) {
+            return false;
+        }
+        waiting.remove(request);
+        return true;
+    }
+
+    // the patient's waiting request, or null
+    public synchronized WaitlistRequest getRequest(int patientId) {
+        return byPatient.get(patientId);
+    }
+
+    // 1-based place of the patient's request in the order it will be served, or 0
+    public synchronized int position(int patientId) {
+        WaitlistRequest request = byPatient.get(patientId);
+        return request == null ? 0 : waiting.headSet(request).size() + 1;
+    }
+
+    public synchronized int size() {
+        return waiting.size();
+    }
+
+    // bookings made for the patient since the last call
+    public List<WaitlistAssignment> takeAssigned(int patientId) {
+        List<WaitlistAssignment> taken = assigned.remove(patientId);
+        return taken == null ? Collections.emptyList() : taken;
+    }
+
+    // the events that free capacity; each returns the number of waiting patients booked
+    public int availabilityAdded(List<Date> dates) throws SQLException {
+        if (dates.isEmpty()) {
+            return 0;
+        }
+        return match(null, Collections.min(dates), Collections.max(dates));
+    }
+
+    public int appointmentCancelled() throws SQLException {
+        return match(null, null, null);
+    }
+
+    public int dosesAdded(String vaccineName) throws SQLException {
+        return match(vaccineName, null, null);
+    }
+
+    // books waiting requests for the vaccine (any if null) that overlap from..to (any if null)
+    private int match(String vaccineName, Date from, Date to) throws SQLException {
+        List<WaitlistRequest> candidates = new ArrayList<>();
+        Date low = null;
+        Date high = null;
+        synchronized (this) {
+            for (WaitlistRequest request : waiting) {
+                if (booking.contains(request.getPatientId())) {
+                    continue;
+                }
+                if (vaccineName != null && !vaccineName.equals(request.getVaccineName())) {
+                    continue;
+                }
+                if (from != null && !request.overlaps(from, to)) {
+                    continue;
+                }
+                candidates.add(request);
+                low = low == null || request.getStart().before(low) ? request.getStart() : low;
+                high = high == null || request.getEnd().after(high) ? request.getEnd() : high;
+            }
+        }
+        if (candidates.isEmpty()) {
+            return 0;
+        }
+        if (from != null) {
+            low = from.after(low) ? from : low;
+            high = to.before(high) ? to : high;
+        }
+
+        return book(candidates, low, high);
+    }
+
+    // reserves for the candidates in order, without holding the lock
+    private int book(List<WaitlistRequest> candidates, Date low, Date high) throws SQLException {
+        SchedulerRepository repository = Repositories.get();
+        SortedMap<Date, Integer> free = new TreeMap<>(repository.countAvailableCaregivers(low, high));
+        Set<String> outOfDoses = new HashSet<>();
+        int booked = 0;
+        for (WaitlistRequest request : candidates) {
+            if (outOfDoses.contains(request.getVaccineName()) || !startBooking(request)) {
+                continue;
+            }
+            try {
+                if (book(repository, request, free, outOfDoses)) {
+                    booked++;
+                }
+            } finally {
+                synchronized (this) {
+                    booking.remove(request.getPatientId());
+                    notifyAll();
+                }
+            }
+        }
+        return booked;
+    }
+
+    // tries the request's days in order until one is booked; true if one was
+    private boolean book(SchedulerRepository repository, WaitlistRequest request, SortedMap<Date, Integer> free,
+                         Set<String> outOfDoses) throws SQLException {
+        for (Map.Entry<Date, Integer> day : free.subMap(request.getStart(), dayAfter(request.getEnd())).entrySet()) {
+            if (day.getValue() <= 0) {
+                continue;
+            }
+            Reservation reservation = repository.reserve(request.getPatientId(), day.getKey(), request.getVaccineName());
+            if (reservation.getStatus() == Reservation.Status.NO_DOSES) {
+                outOfDoses.add(request.getVaccineName());
+                return false;
+            }
+            if (reservation.getStatus() == Reservation.Status.NO_CAREGIVER) {
+                // taken by a direct reserve since the count was read
+                day.setValue(0);
+                continue;
+            }
+            // the count is of caregivers, and with time slots one may take several more bookings,
+            // so the day stays a candidate until reserve finds nobody
+            synchronized (this) {
+                // still waiting: leave and join wait while the request is marked
+                byPatient.remove(request.getPatientId());
+                waiting.remove(request);
+            }
+            // a JOURNALED booking holds its slot and dose like any other, so the request is done
+            // too; the patient is told the journal entry instead of an appointment id
+            WaitlistAssignment assignment = new WaitlistAssignment(request, reservation.getAppointmentId(),
+                    reservation.getCaregiverUsername(), day.getKey(), reservation.getSlot(), reservation.getJournalSequence());
+            // added inside compute so a concurrent takeAssigned cannot miss it
+            assigned.compute(request.getPatientId(), (id, list) -> {
+                List<WaitlistAssignment> updated = list == null ? new ArrayList<>() : list;
+                updated.add(assignment);
+                return updated;
+            });
+            Metrics.counter("waitlist.assigned").increment();
+            return true;
+        }
+        return false;
+    }
+
+    // marks the request as being booked; false if it is no longer waiting or already marked
+    private synchronized boolean startBooking(WaitlistRequest request) {
+        return isWaiting(request) && booking.add(request.getPatientId());
+    }
+
+    // waits, holding the lock, until no match is booking the patient's request
+    private void awaitBooking(int patientId) {
+        boolean interrupted = false;
+        while (booking.contains(patientId)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // false once the patient left or replaced the request
+    private synchronized boolean isWaiting(WaitlistRequest request) {
+        return byPatient.get(request.getPatientId()) == request;
+    }
+
+    private static Date dayAfter(Date date) {
+        return Date.valueOf(date.toLocalDate().plusDays(1));
+    }
+}
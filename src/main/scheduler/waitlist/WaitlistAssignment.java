@@ -0,0 +1,57 @@
+package scheduler.waitlist;
+
+import java.sql.Date;
+
+/**
+ * An appointment booked for a waiting patient, kept until the patient has been told about it.
+ * A booking made while the database was unreachable has no appointment id yet, only the journal
+ * entry it was recorded as.
+ */
+public class WaitlistAssignment {
+    private final WaitlistRequest request;
+    private final int appointmentId;
+    private final String caregiverUsername;
+    private final Date date;
+    private final int slot;
+    private final long journalSequence;
+
+    WaitlistAssignment(WaitlistRequest request, int appointmentId, String caregiverUsername, Date date, int slot,
+                       long journalSequence) {
+        this.request = request;
+        this.appointmentId = appointmentId;
+        this.caregiverUsername = caregiverUsername;
+        this.date = date;
+        this.slot = slot;
+        this.journalSequence = journalSequence;
+    }
+
+    public WaitlistRequest getRequest() {
+        return request;
+    }
+
+    // -1 for a booking still in the journal
+    public int getAppointmentId() {
+        return appointmentId;
+    }
+
+    public String getCaregiverUsername() {
+        return caregiverUsername;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public boolean isJournaled() {
+        return journalSequence >= 0;
+    }
+
+    // the journal entry the booking was recorded as, -1 for a booking made in the database
+    public long getJournalSequence() {
+        return journalSequence;
+    }
+}
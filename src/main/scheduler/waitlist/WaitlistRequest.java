@@ -0,0 +1,52 @@
+package scheduler.waitlist;
+
+import java.sql.Date;
+
+/**
+ * A patient waiting for an appointment with a vaccine on any day from start to end inclusive.
+ * Requests are numbered in the order they joined, which breaks ties between equal priorities.
+ */
+public class WaitlistRequest {
+    private final long sequence;
+    private final int patientId;
+    private final Date start;
+    private final Date end;
+    private final String vaccineName;
+    private final long joinedAt = System.currentTimeMillis();
+
+    WaitlistRequest(long sequence, int patientId, Date start, Date end, String vaccineName) {
+        this.sequence = sequence;
+        this.patientId = patientId;
+        this.start = start;
+        this.end = end;
+        this.vaccineName = vaccineName;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public int getPatientId() {
+        return patientId;
+    }
+
+    public Date getStart() {
+        return start;
+    }
+
+    public Date getEnd() {
+        return end;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public long getJoinedAt() {
+        return joinedAt;
+    }
+
+    public boolean overlaps(Date from, Date to) {
+        return !end.before(from) && !start.after(to);
+    }
+}
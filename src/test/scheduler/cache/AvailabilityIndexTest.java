@@ -0,0 +1,222 @@
+package scheduler.cache;
+
+import org.junit.jupiter.api.Test;
+import scheduler.model.TimeSlots;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AvailabilityIndexTest {
+
+    private static final long DAY = 20000;
+    private static final int THREADS = 8;
+
+    @Test
+    void concurrentClaimsGiveEachSlotOnce() throws Exception {
+        AvailabilityIndex index = new AvailabilityIndex(-1L);
+        int caregivers = 100;
+        for (int i = 0; i < caregivers; i++) {
+            index.publish(DAY, index.register("c" + i));
+        }
+        Set<Long> claimed = ConcurrentHashMap.newKeySet();
+        AtomicInteger duplicates = new AtomicInteger();
+
+        runConcurrently(() -> {
+            for (int ordinal = index.firstFree(DAY); ordinal >= 0; ordinal = index.firstFree(DAY)) {
+                int slot = index.claim(DAY, ordinal, TimeSlots.ANY);
+                if (slot >= 0 && !claimed.add(((long) ordinal << 6) | slot)) {
+                    duplicates.incrementAndGet();
+                }
+            }
+        });
+
+        assertEquals(0, duplicates.get(), "slots claimed twice");
+        assertEquals(caregivers * 64L, claimed.size());
+        assertEquals(-1, index.firstFree(DAY));
+        assertEquals(0, index.countFree(DAY));
+        assertEquals(0, index.countFreeSlots(DAY));
+    }
+
+    @Test
+    void claimsAndReleasesRacingKeepOneHolderPerSlot() throws Exception {
+        long fullDay = (1L << 4) - 1;
+        AvailabilityIndex index = new AvailabilityIndex(fullDay);
+        int caregivers = 3;
+        for (int i = 0; i < caregivers; i++) {
+            index.publish(DAY, index.register("c" + i));
+        }
+        AtomicIntegerArray holders = new AtomicIntegerArray(caregivers * 4);
+        AtomicInteger overlaps = new AtomicInteger();
+
+        runConcurrently(() -> {
+            for (int i = 0; i < 20000; i++) {
+                int ordinal = index.firstFree(DAY);
+                if (ordinal < 0) {
+                    continue;
+                }
+                int slot = index.claim(DAY, ordinal, TimeSlots.ANY);
+                if (slot < 0) {
+                    continue;
+                }
+                if (holders.incrementAndGet(ordinal * 4 + slot) != 1) {
+                    overlaps.incrementAndGet();
+                }
+                holders.decrementAndGet(ordinal * 4 + slot);
+                index.release(DAY, ordinal, slot);
+            }
+        });
+
+        assertEquals(0, overlaps.get(), "slots held by two claims at once");
+        for (int ordinal = 0; ordinal < caregivers; ordinal++) {
+            assertEquals(fullDay, index.freeSlots(DAY, ordinal));
+            assertTrue(index.isFree(DAY, ordinal), "caregiver " + ordinal + " lost its free bit");
+        }
+        assertEquals(caregivers * 4, index.countFreeSlots(DAY));
+    }
+
+    // the last free slot being claimed while another slot is released must not leave the
+    // caregiver with a free slot but without its free bit
+    @Test
+    void freeBitSurvivesAReleaseDuringTheLastClaim() throws Exception {
+        AvailabilityIndex index = new AvailabilityIndex((1L << 2) - 1);
+        int ordinal = index.register("c0");
+        index.publish(DAY, ordinal);
+        CyclicBarrier round = new CyclicBarrier(2);
+        int rounds = 100000;
+        AtomicInteger lost = new AtomicInteger();
+
+        Thread releaser = new Thread(() -> {
+            try {
+                for (int i = 0; i < rounds; i++) {
+                    round.await();
+                    index.release(DAY, ordinal, 0);
+                    round.await();
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        releaser.start();
+        for (int i = 0; i < rounds; i++) {
+            // slot 0 is held, slot 1 is the last free one
+            assertEquals(0, index.claim(DAY, ordinal, 0));
+            round.await();
+            assertEquals(1, index.claim(DAY, ordinal, 1));
+            round.await();
+            if (!index.isFree(DAY, ordinal)) {
+                lost.incrementAndGet();
+            }
+            index.release(DAY, ordinal, 1);
+        }
+        releaser.join();
+
+        assertEquals(0, lost.get(), "rounds that lost the free bit");
+        assertEquals(3, index.freeSlots(DAY, ordinal));
+        assertTrue(index.isFree(DAY, ordinal));
+    }
+
+    @Test
+    void claimTakesTheRequestedSlotOnlyOnce() {
+        AvailabilityIndex index = new AvailabilityIndex((1L << 3) - 1);
+        int ordinal = index.register("c0");
+        index.publish(DAY, ordinal);
+
+        assertEquals(1, index.claim(DAY, ordinal, 1));
+        assertEquals(-1, index.claim(DAY, ordinal, 1));
+        assertEquals(0, index.claim(DAY, ordinal, TimeSlots.ANY));
+        assertEquals(2, index.claim(DAY, ordinal, TimeSlots.ANY));
+        assertFalse(index.isFree(DAY, ordinal));
+        assertEquals(-1, index.claim(DAY, ordinal, TimeSlots.ANY));
+
+        index.release(DAY, ordinal, 1);
+        assertTrue(index.isFree(DAY, ordinal));
+        assertEquals(ordinal, index.nextFreeAt(DAY, 0, 1));
+        assertEquals(-1, index.nextFreeAt(DAY, 0, 2));
+    }
+
+    @Test
+    void releaseWithoutARowChangesNothing() {
+        AvailabilityIndex index = new AvailabilityIndex();
+        int ordinal = index.register("c0");
+        index.release(DAY, ordinal, 0);
+
+        assertFalse(index.hasRow(DAY, ordinal));
+        assertFalse(index.isFree(DAY, ordinal));
+        assertEquals(-1, index.claim(DAY, ordinal, TimeSlots.ANY));
+    }
+
+    @Test
+    void compareAndRefreshKeepsAClaimMadeAfterTheRead() {
+        AvailabilityIndex index = new AvailabilityIndex((1L << 2) - 1);
+        int ordinal = index.register("c0");
+        index.publish(DAY, ordinal);
+
+        long read = index.freeSlots(DAY, ordinal);
+        assertEquals(0, index.claim(DAY, ordinal, 0));
+        // storage still shows both slots free, but the claim came after the read
+        assertFalse(index.compareAndRefresh(DAY, ordinal, read, 3));
+        assertEquals(2, index.freeSlots(DAY, ordinal));
+
+        assertTrue(index.compareAndRefresh(DAY, ordinal, 2, 0));
+        assertFalse(index.isFree(DAY, ordinal));
+        assertTrue(index.compareAndRefresh(DAY, ordinal, 0, 1));
+        assertTrue(index.isFree(DAY, ordinal));
+        assertFalse(index.compareAndRefresh(DAY + 1, ordinal, 0, 1), "no row on that day");
+    }
+
+    @Test
+    void pruneBeforeDropsOnlyEarlierDays() {
+        AvailabilityIndex index = new AvailabilityIndex();
+        int ordinal = index.register("c0");
+        for (long day = DAY; day < DAY + 5; day++) {
+            index.publish(day, ordinal);
+        }
+        assertEquals(0, index.claim(DAY + 3, ordinal, TimeSlots.ANY));
+
+        assertEquals(3, index.pruneBefore(DAY + 3));
+        assertEquals(0, index.pruneBefore(DAY + 3));
+        assertFalse(index.hasRow(DAY + 2, ordinal));
+        assertTrue(index.hasRow(DAY + 3, ordinal));
+        assertFalse(index.isFree(DAY + 3, ordinal), "a claim survives the prune");
+        assertTrue(index.isFree(DAY + 4, ordinal));
+        assertTrue(index.publish(DAY + 5, ordinal));
+    }
+
+    // starts THREADS copies of the task together and rethrows the first failure
+    private static void runConcurrently(Runnable task) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    task.run();
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (!failures.isEmpty()) {
+            throw new AssertionError(failures.get(0));
+        }
+    }
+}
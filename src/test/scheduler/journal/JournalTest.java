@@ -0,0 +1,281 @@
+package scheduler.journal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JournalTest {
+
+    // the records start after the file header
+    private static final int HEADER_SIZE = 64;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void entriesSurviveReopening() throws IOException {
+        Path path = directory.resolve("clinic.journal");
+        String id;
+        try (Journals journals = new Journals(path)) {
+            Journal journal = journals.open();
+            id = journal.getId();
+            assertEquals(1, journal.append(JournalEntry.doses("Pfizer", 5)));
+            assertEquals(2, journal.append(JournalEntry.reservation(7, Date.valueOf("2024-05-01"), "c1", 3, "Pfizer")));
+            assertEquals(3, journal.append(JournalEntry.availability("c1", List.of(Date.valueOf("2024-05-02")))));
+            journal.markReplayed(1);
+        }
+
+        try (Journals journals = new Journals(path)) {
+            Journal journal = journals.open();
+            assertEquals(id, journal.getId());
+            assertEquals(2, journal.pendingCount());
+            List<JournalEntry> pending = journal.pending();
+            assertEquals(2, pending.size());
+            JournalEntry reservation = pending.get(0);
+            assertEquals(2, reservation.getSequence());
+            assertEquals(JournalEntry.Type.RESERVATION, reservation.getType());
+            assertEquals(7, reservation.getPatientId());
+            assertEquals(Date.valueOf("2024-05-01"), reservation.getDate());
+            assertEquals("c1", reservation.getCaregiverUsername());
+            assertEquals(3, reservation.getSlot());
+            assertEquals("Pfizer", reservation.getVaccineName());
+            assertEquals(List.of(Date.valueOf("2024-05-02")), pending.get(1).getDates());
+            assertEquals(4, journal.append(JournalEntry.doses("Moderna", -1)));
+        }
+    }
+
+    // a record whose bytes do not match its checksum, as a write cut short by a crash leaves
+    // it, ends the journal; the next append takes its place
+    @Test
+    void damagedRecordEndsTheJournal() throws IOException {
+        Path path = directory.resolve("clinic.journal");
+        try (Journals journals = new Journals(path)) {
+            Journal journal = journals.open();
+            for (int i = 1; i <= 3; i++) {
+                journal.append(JournalEntry.doses("Pfizer", i));
+            }
+        }
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            long third = recordOffset(file, 3);
+            // flip a byte of the entry, past the length, checksum and sequence
+            long at = third + 8 + 8 + 4;
+            file.seek(at);
+            int value = file.read();
+            file.seek(at);
+            file.write(value ^ 0xFF);
+        }
+
+        try (Journals journals = new Journals(path)) {
+            Journal journal = journals.open();
+            List<JournalEntry> pending = journal.pending();
+            assertEquals(2, pending.size());
+            assertEquals(2, pending.get(1).getChange());
+            assertEquals(3, journal.append(JournalEntry.doses("Moderna", 9)));
+        }
+        try (Journals journals = new Journals(path)) {
+            List<JournalEntry> pending = journals.open().pending();
+            assertEquals(3, pending.size());
+            assertEquals("Moderna", pending.get(2).getVaccineName());
+            assertEquals(9, pending.get(2).getChange());
+        }
+    }
+
+    // only the length was written before the crash, so the record's bytes are still zero
+    @Test
+    void tornRecordEndsTheJournal() throws IOException {
+        Path path = directory.resolve("clinic.journal");
+        try (Journals journals = new Journals(path)) {
+            journals.open().append(JournalEntry.doses("Pfizer", 1));
+        }
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.seek(recordOffset(file, 2));
+            file.writeInt(40);
+        }
+
+        try (Journals journals = new Journals(path)) {
+            Journal journal = journals.open();
+            assertEquals(1, journal.pendingCount());
+            assertEquals(1, journal.pending().size());
+            assertEquals(2, journal.append(JournalEntry.doses("Pfizer", 2)));
+        }
+    }
+
+    @Test
+    void compactDropsRecordsOnceAllAreReplayed() throws IOException {
+        Path path = directory.resolve("clinic.journal");
+        try (Journals journals = new Journals(path)) {
+            Journal journal = journals.open();
+            journal.append(JournalEntry.doses("Pfizer", 1));
+            journal.append(JournalEntry.doses("Pfizer", 2));
+            journal.markReplayed(1);
+            journal.compact();
+            assertEquals(1, journal.pending().size(), "compact must wait for every entry to be replayed");
+
+            journal.markReplayed(2);
+            journal.compact();
+            assertTrue(journal.pending().isEmpty());
+            assertEquals(0, journal.pendingCount());
+            assertEquals(3, journal.append(JournalEntry.doses("Pfizer", 3)));
+        }
+
+        try (Journals journals = new Journals(path)) {
+            Journal journal = journals.open();
+            List<JournalEntry> pending = journal.pending();
+            assertEquals(1, pending.size());
+            assertEquals(3, pending.get(0).getSequence());
+            assertEquals(4, journal.append(JournalEntry.doses("Pfizer", 4)));
+        }
+    }
+
+    @Test
+    void openFileIsLocked() throws IOException {
+        Path path = directory.resolve("clinic.journal");
+        try (Journals journals = new Journals(path)) {
+            journals.open();
+            assertThrows(IOException.class, () -> Journal.open(path, 0));
+        }
+    }
+
+    // the database committed an entry but the process died before markReplayed: the entry is
+    // replayed again after the restart, reported as a duplicate and not applied twice
+    @Test
+    void replayAfterACrashBetweenCommitAndMarkReplayed() throws Exception {
+        Path path = directory.resolve("clinic.journal");
+        String conflictLog = directory.resolve("conflicts.log").toString();
+        FakeDatabase database = new FakeDatabase();
+        String id;
+        try (Journals journals = new Journals(path)) {
+            Journal journal = journals.open();
+            id = journal.getId();
+            for (int i = 1; i <= 3; i++) {
+                journal.append(JournalEntry.doses("Pfizer", i));
+            }
+            OfflineJournal offline = new OfflineJournal(journal, database, () -> true, 60000, conflictLog);
+            journals.closeWith(offline);
+            assertTrue(offline.isOffline(), "entries left over keep the engine offline");
+
+            database.failAfterCommitOf = 2;
+            assertFalse(offline.replay());
+            assertEquals(2, offline.pendingCount());
+            assertEquals(List.of(1L, 2L), database.applied);
+        }
+
+        try (Journals journals = new Journals(path)) {
+            Journal journal = journals.open();
+            assertEquals(id, journal.getId());
+            OfflineJournal offline = new OfflineJournal(journal, database, () -> true, 60000, conflictLog);
+            journals.closeWith(offline);
+
+            assertTrue(offline.replay());
+            assertEquals(List.of(1L, 2L, 3L), database.applied);
+            assertEquals(List.of(ReplayResult.Status.DUPLICATE, ReplayResult.Status.APPLIED), database.results.subList(2, 4));
+            assertTrue(database.allRecovered, "entries from the earlier run are replayed as recovered");
+            assertEquals(0, offline.pendingCount());
+            assertFalse(offline.isOffline());
+            assertTrue(journal.pending().isEmpty());
+        }
+    }
+
+    @Test
+    void unreachableDatabaseLeavesTheEntriesPending() throws Exception {
+        Path path = directory.resolve("clinic.journal");
+        FakeDatabase database = new FakeDatabase();
+        try (Journals journals = new Journals(path)) {
+            Journal journal = journals.open();
+            journal.append(JournalEntry.doses("Pfizer", 1));
+            OfflineJournal offline = new OfflineJournal(journal, database, () -> false, 60000,
+                    directory.resolve("conflicts.log").toString());
+            journals.closeWith(offline);
+
+            assertFalse(offline.replay());
+            assertTrue(offline.isOffline());
+            assertEquals(1, offline.pendingCount());
+            assertTrue(database.applied.isEmpty());
+        }
+    }
+
+    // walks the length prefixes to the record with the given sequence
+    private static long recordOffset(RandomAccessFile file, long sequence) throws IOException {
+        long at = HEADER_SIZE;
+        for (long i = 1; i < sequence; i++) {
+            file.seek(at);
+            at += 8 + file.readInt();
+        }
+        return at;
+    }
+
+    // the JournalReplay table reduced to a set, with a way to lose the connection right after
+    // a commit
+    private static final class FakeDatabase implements OfflineJournal.Applier {
+        private final Set<String> replayed = new HashSet<>();
+        private final List<Long> applied = new ArrayList<>();
+        private final List<ReplayResult.Status> results = new ArrayList<>();
+        private long failAfterCommitOf = -1;
+        private boolean allRecovered = true;
+
+        @Override
+        public ReplayResult apply(String journalId, JournalEntry entry, boolean recovered) throws SQLException {
+            allRecovered &= recovered;
+            ReplayResult result;
+            if (!replayed.add(journalId + "/" + entry.getSequence())) {
+                result = ReplayResult.duplicate();
+            } else {
+                applied.add(entry.getSequence());
+                result = ReplayResult.applied();
+            }
+            results.add(result.getStatus());
+            if (entry.getSequence() == failAfterCommitOf) {
+                failAfterCommitOf = -1;
+                throw new SQLException("Connection lost", "08S01");
+            }
+            return result;
+        }
+    }
+
+    // closes what a test opened, the OfflineJournal (which closes its journal) if there is one
+    private static final class Journals implements AutoCloseable {
+        private final Path path;
+        private Journal journal;
+        private OfflineJournal offline;
+
+        Journals(Path path) {
+            this.path = path;
+        }
+
+        Journal open() throws IOException {
+            journal = Journal.open(path, 0);
+            return journal;
+        }
+
+        void closeWith(OfflineJournal offline) {
+            this.offline = offline;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (offline != null) {
+                try {
+                    offline.close();
+                } catch (SQLException e) {
+                    throw new IOException(e);
+                }
+            } else if (journal != null) {
+                journal.close();
+            }
+        }
+    }
+}